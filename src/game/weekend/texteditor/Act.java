@@ -37,11 +37,13 @@ public class Act {
 	 * @param lastFiles last opened files.
 	 * @param finder    finder.
 	 * @param replacer  replacer.
+	 * @param files     search in files.
+	 * @param keywords  highlighted keywords.
 	 * @param laf       LaF.
 	 * @param messenger displaying messages.
 	 */
 	public Act(WeekendTextEditor app, Editor editor, Filer filer, LastFiles lastFiles, Finder finder, Replacer replacer,
-			LaF laf) {
+			FileFinder files, Keywords keywords, LaF laf) {
 
 		this.filer = filer;
 		this.lastFiles = lastFiles;
@@ -68,10 +70,14 @@ public class Act {
 		findForward = getActFindForward(finder);
 		findBack = getActFindBack(finder);
 		replace = getActReplace(replacer);
+		findInFiles = getActFindInFiles(files);
+		indexLargeFiles = getActIndexLargeFiles(filer);
+		goTo = getActGoTo(editor);
 
 		toolbarOn = getActToolbarOn(app);
 		statusbarOn = getActStatusbarOn(app);
 		monoFont = getActMonoFont(editor);
+		editKeywords = getActKeywords(keywords);
 		incFontSize = getActIncFontSize(editor);
 		decFontSize = getActDecFontSize(editor);
 		defFontSize = getActDefFontSize(editor);
@@ -104,6 +110,14 @@ public class Act {
 		editMenu.add(findForward);
 		editMenu.add(findBack);
 		editMenu.add(replace);
+		editMenu.add(findInFiles);
+
+		JCheckBoxMenuItem index = new JCheckBoxMenuItem(indexLargeFiles);
+		index.setSelected(Proper.getProperty("IndexLargeFiles", "FALSE").equalsIgnoreCase("TRUE"));
+		editMenu.add(index);
+
+		editMenu.add(new JSeparator());
+		editMenu.add(goTo);
 
 		JMenu viewMenu = new JMenu(Loc.get("view"));
 		ButtonGroup btgLaf = new ButtonGroup();
@@ -143,6 +157,10 @@ public class Act {
 
 		viewMenu.add(new JSeparator());
 
+		viewMenu.add(editKeywords);
+
+		viewMenu.add(new JSeparator());
+
 		viewMenu.add(incFontSize);
 		viewMenu.add(decFontSize);
 		viewMenu.add(defFontSize);
@@ -232,6 +250,8 @@ public class Act {
 		toolBar.add(findForward);
 		toolBar.add(findBack);
 		toolBar.add(replace);
+		toolBar.addSeparator();
+		toolBar.add(goTo);
 
 		return toolBar;
 	}
@@ -258,6 +278,8 @@ public class Act {
 			popupMenu.add(findForward);
 			popupMenu.add(findBack);
 			popupMenu.add(replace);
+			popupMenu.add(new JSeparator());
+			popupMenu.add(goTo);
 		}
 
 		return popupMenu;
@@ -716,6 +738,70 @@ public class Act {
 		};
 	}
 
+	/**
+	 * "Find in files..."
+	 * 
+	 * @return Action "Find in files..."
+	 */
+	@SuppressWarnings("serial")
+	private AbstractAction getActFindInFiles(FileFinder files) {
+		return new AbstractAction() {
+			{
+				putValue(Action.NAME, Loc.get("find_in_files") + "...");
+				putValue(Action.SHORT_DESCRIPTION, Loc.get("find_in_files") + "...");
+				putValue(Action.SMALL_ICON, getImageIcon("find.gif"));
+				putValue(Action.ACCELERATOR_KEY,
+						KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+			}
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				files.find();
+			}
+		};
+	}
+
+	/**
+	 * "Index large files"
+	 * 
+	 * @return Action "Index large files"
+	 */
+	@SuppressWarnings("serial")
+	private AbstractAction getActIndexLargeFiles(Filer filer) {
+		return new AbstractAction() {
+			{
+				putValue(Action.NAME, Loc.get("index_large_files"));
+				putValue(Action.SHORT_DESCRIPTION, Loc.get("index_large_files"));
+				putValue(Action.SMALL_ICON, getImageIcon("empty.gif"));
+			}
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				JCheckBoxMenuItem i = (JCheckBoxMenuItem) actionEvent.getSource();
+				filer.setIndexing(i.isSelected());
+			}
+		};
+	}
+
+	/**
+	 * "Go to..."
+	 * 
+	 * @return Action "Go to..."
+	 */
+	@SuppressWarnings("serial")
+	private AbstractAction getActGoTo(Editor editor) {
+		return new AbstractAction() {
+			{
+				putValue(Action.NAME, Loc.get("go_to") + "...");
+				putValue(Action.SHORT_DESCRIPTION, Loc.get("go_to_line_or_offset"));
+				putValue(Action.SMALL_ICON, getImageIcon("goto.gif"));
+				putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_L, InputEvent.CTRL_DOWN_MASK));
+			}
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				editor.goTo();
+			}
+		};
+	}
+
 	/**
 	 * "Show toolbar"
 	 * 
@@ -783,6 +869,26 @@ public class Act {
 		};
 	}
 
+	/**
+	 * "Keywords..."
+	 * 
+	 * @return Action "Keywords..."
+	 */
+	@SuppressWarnings("serial")
+	private AbstractAction getActKeywords(Keywords keywords) {
+		return new AbstractAction() {
+			{
+				putValue(Action.NAME, Loc.get("keywords") + "...");
+				putValue(Action.SHORT_DESCRIPTION, Loc.get("highlight_keywords"));
+				putValue(Action.SMALL_ICON, getImageIcon("empty.gif"));
+			}
+
+			public void actionPerformed(ActionEvent actionEvent) {
+				keywords.edit();
+			}
+		};
+	}
+
 	/**
 	 * "Increase font size"
 	 *
@@ -894,10 +1000,14 @@ public class Act {
 	private AbstractAction findForward;
 	private AbstractAction findBack;
 	private AbstractAction replace;
+	private AbstractAction findInFiles;
+	private AbstractAction indexLargeFiles;
+	private AbstractAction goTo;
 
 	private AbstractAction toolbarOn;
 	private AbstractAction statusbarOn;
 	private AbstractAction monoFont;
+	private AbstractAction editKeywords;
 	private AbstractAction incFontSize;
 	private AbstractAction decFontSize;
 	private AbstractAction defFontSize;
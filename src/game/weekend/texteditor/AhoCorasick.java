@@ -0,0 +1,206 @@
+package game.weekend.texteditor;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Search for many strings at once by the Aho-Corasick algorithm.
+ * <p>
+ * The strings are put into a tree of their prefixes, and each node gets a link
+ * to the node of its longest suffix that is also a prefix. The text is read
+ * once, character by character, whatever the number of strings: on a character
+ * the search goes down the tree, and if it cannot, it follows the links until
+ * it can. All the strings ending at the character are found by another link,
+ * the link to the nearest node where a string ends.
+ * <p>
+ * The transitions are kept in one hash table for all the nodes, so the tree
+ * takes little memory even for characters of any alphabet. The object is not
+ * changed by the search and can be used by several threads.
+ */
+public class AhoCorasick {
+
+	/**
+	 * Build the automaton for the strings.
+	 *
+	 * @param keywords      strings to search for; empty ones are skipped.
+	 * @param caseSensitive take the case of the characters into account.
+	 */
+	public AhoCorasick(Collection<String> keywords, boolean caseSensitive) {
+		this.caseSensitive = caseSensitive;
+
+		int capacity = 1;
+		for (String k : keywords)
+			capacity += k.length();
+		out = new int[capacity];
+		fail = new int[capacity];
+		dict = new int[capacity];
+		int bits = 1;
+		while ((1 << bits) < capacity * 2)
+			++bits;
+		shift = 64 - bits;
+		keys = new long[1 << bits];
+		targets = new int[1 << bits];
+		Arrays.fill(keys, -1);
+		// The children of a node are needed to go round the tree in breadth
+		int[] firstChild = new int[capacity];
+		int[] nextSibling = new int[capacity];
+		char[] label = new char[capacity];
+		Arrays.fill(firstChild, -1);
+
+		// The tree of the prefixes
+		nodes = 1;
+		for (String k : keywords) {
+			if (k.isEmpty())
+				continue;
+			int state = 0;
+			for (int i = 0; i < k.length(); ++i) {
+				char c = fold(k.charAt(i));
+				int next = next(state, c);
+				if (next < 0) {
+					next = nodes++;
+					put(state, c, next);
+					label[next] = c;
+					nextSibling[next] = firstChild[state];
+					firstChild[state] = next;
+				}
+				state = next;
+			}
+			out[state] = k.length();
+			longest = Math.max(longest, k.length());
+		}
+
+		// The links, level by level: the link of a node is found by the link of its
+		// parent, which is on the level above
+		int[] queue = new int[nodes];
+		int head = 0;
+		int tail = 0;
+		for (int child = firstChild[0]; child >= 0; child = nextSibling[child])
+			queue[tail++] = child;
+		while (head < tail) {
+			int state = queue[head++];
+			for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+				char c = label[child];
+				int f = fail[state];
+				int next;
+				while ((next = next(f, c)) < 0 && f != 0)
+					f = fail[f];
+				fail[child] = (next < 0) ? 0 : next;
+				dict[child] = (out[fail[child]] > 0) ? fail[child] : dict[fail[child]];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	/**
+	 * Are there no strings to search for?
+	 *
+	 * @return true/false.
+	 */
+	public boolean isEmpty() {
+		return longest == 0;
+	}
+
+	/**
+	 * Get the length of the longest string.
+	 *
+	 * @return number of characters.
+	 */
+	public int getLongest() {
+		return longest;
+	}
+
+	/**
+	 * Find all the occurrences of all the strings lying in a part of the text, even
+	 * overlapping ones.
+	 *
+	 * @param text text.
+	 * @param from beginning of the part.
+	 * @param to   end of the part.
+	 * @return beginnings and ends of the occurrences in pairs, sorted by the
+	 *         beginnings and then by the ends.
+	 */
+	public int[] findAll(CharSequence text, int from, int to) {
+		// An occurrence is packed into a long, so that sorting keeps the pairs
+		long[] found = new long[16];
+		int n = 0;
+		int state = 0;
+		for (int i = from; i < to; ++i) {
+			char c = fold(text.charAt(i));
+			int next;
+			while ((next = next(state, c)) < 0 && state != 0)
+				state = fail[state];
+			state = (next < 0) ? 0 : next;
+
+			for (int s = (out[state] > 0) ? state : dict[state]; s != 0; s = dict[s]) {
+				if (n == found.length)
+					found = Arrays.copyOf(found, n * 2);
+				found[n++] = ((long) (i + 1 - out[s]) << 32) | (i + 1);
+			}
+		}
+
+		// The occurrences were found by their ends
+		Arrays.sort(found, 0, n);
+		int[] pairs = new int[2 * n];
+		for (int i = 0; i < n; ++i) {
+			pairs[2 * i] = (int) (found[i] >>> 32);
+			pairs[2 * i + 1] = (int) found[i];
+		}
+		return pairs;
+	}
+
+	/**
+	 * Get the node the transition by the character leads to.
+	 *
+	 * @return node, or -1 if there is no such transition.
+	 */
+	private int next(int state, char c) {
+		long key = ((long) state << 16) | c;
+		for (int i = hash(key);; i = (i + 1) & (keys.length - 1)) {
+			if (keys[i] == key)
+				return targets[i];
+			if (keys[i] == -1)
+				return -1;
+		}
+	}
+
+	/**
+	 * Add the transition.
+	 */
+	private void put(int state, char c, int next) {
+		long key = ((long) state << 16) | c;
+		int i = hash(key);
+		while (keys[i] != -1)
+			i = (i + 1) & (keys.length - 1);
+		keys[i] = key;
+		targets[i] = next;
+	}
+
+	private int hash(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * The character as it is compared: without the case, if required.
+	 */
+	private char fold(char c) {
+		return caseSensitive ? c : Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private final boolean caseSensitive;
+
+	/** Number of the nodes, the root is 0 */
+	private int nodes;
+	/** The length of the string ending in the node, or 0 */
+	private final int[] out;
+	/** The node of the longest suffix that is also a prefix */
+	private final int[] fail;
+	/** The nearest node on the suffix links where a string ends, or 0 */
+	private final int[] dict;
+	/** Length of the longest string */
+	private int longest;
+
+	/** Transitions: the node and the character, and where they lead */
+	private final long[] keys;
+	private final int[] targets;
+	private final int shift;
+}
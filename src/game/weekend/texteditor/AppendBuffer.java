@@ -0,0 +1,159 @@
+package game.weekend.texteditor;
+
+import java.util.Arrays;
+
+import javax.swing.text.Segment;
+
+/**
+ * Buffer to which text is only appended.
+ * <p>
+ * The text is kept in arrays of a fixed size. An array, once allocated, is never
+ * moved, and the characters written into it are never changed. Therefore the
+ * text written before some moment can be read from another thread through the
+ * arrays taken at that moment (getChunks()), while new text is appended after
+ * it.
+ */
+public class AppendBuffer {
+
+	/**
+	 * Get the length of the text.
+	 *
+	 * @return number of characters.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Append text.
+	 *
+	 * @param str text.
+	 */
+	public void append(String str) {
+		int from = 0;
+		int n = str.length();
+		while (from < n) {
+			int chunk = length >>> CHUNK_SHIFT;
+			int into = length & (CHUNK - 1);
+			if (into == 0) {
+				if (chunk == chunks.length)
+					chunks = Arrays.copyOf(chunks, chunks.length * 2);
+				chunks[chunk] = new char[CHUNK];
+			}
+			int count = Math.min(n - from, CHUNK - into);
+			str.getChars(from, from + count, chunks[chunk], into);
+			from += count;
+			length += count;
+		}
+	}
+
+	/**
+	 * Append characters of an array.
+	 *
+	 * @param chars  array.
+	 * @param offset index of the first character.
+	 * @param count  number of characters.
+	 */
+	public void append(char[] chars, int offset, int count) {
+		int from = offset;
+		int n = offset + count;
+		while (from < n) {
+			int chunk = length >>> CHUNK_SHIFT;
+			int into = length & (CHUNK - 1);
+			if (into == 0) {
+				if (chunk == chunks.length)
+					chunks = Arrays.copyOf(chunks, chunks.length * 2);
+				chunks[chunk] = new char[CHUNK];
+			}
+			int k = Math.min(n - from, CHUNK - into);
+			System.arraycopy(chars, from, chunks[chunk], into, k);
+			from += k;
+			length += k;
+		}
+	}
+
+	/**
+	 * Get the arrays of the text written so far.
+	 *
+	 * @return arrays of the text.
+	 */
+	public char[][] getChunks() {
+		return Arrays.copyOf(chunks, (length + CHUNK - 1) >>> CHUNK_SHIFT);
+	}
+
+	/**
+	 * Copy characters into the array.
+	 *
+	 * @param start    index of the first character.
+	 * @param end      index after the last character.
+	 * @param dst      array.
+	 * @param dstBegin where to put the first character.
+	 */
+	public void getChars(int start, int end, char[] dst, int dstBegin) {
+		getChars(chunks, start, end, dst, dstBegin);
+	}
+
+	/**
+	 * Point the segment at the characters without copying them.
+	 *
+	 * @param start index of the first character.
+	 * @param end   index after the last character.
+	 * @param txt   segment.
+	 * @see #getSegment(char[][], int, int, Segment)
+	 */
+	public void getSegment(int start, int end, Segment txt) {
+		getSegment(chunks, start, end, txt);
+	}
+
+	/**
+	 * Copy characters from the arrays of the text into the array.
+	 *
+	 * @param chunks   arrays of the text.
+	 * @param start    index of the first character.
+	 * @param end      index after the last character.
+	 * @param dst      array.
+	 * @param dstBegin where to put the first character.
+	 */
+	public static void getChars(char[][] chunks, int start, int end, char[] dst, int dstBegin) {
+		while (start < end) {
+			int into = start & (CHUNK - 1);
+			int count = Math.min(end - start, CHUNK - into);
+			System.arraycopy(chunks[start >>> CHUNK_SHIFT], into, dst, dstBegin, count);
+			start += count;
+			dstBegin += count;
+		}
+	}
+
+	/**
+	 * Point the segment at the characters without copying them. If the characters
+	 * lie in different arrays, the segment gets only those of the first array.
+	 *
+	 * @param chunks arrays of the text.
+	 * @param start  index of the first character.
+	 * @param end    index after the last character.
+	 * @param txt    segment.
+	 */
+	public static void getSegment(char[][] chunks, int start, int end, Segment txt) {
+		int into = start & (CHUNK - 1);
+		txt.array = chunks[start >>> CHUNK_SHIFT];
+		txt.offset = into;
+		txt.count = Math.min(end - start, CHUNK - into);
+	}
+
+	/**
+	 * Get a character from the arrays of the text.
+	 *
+	 * @param chunks arrays of the text.
+	 * @param index  index of the character.
+	 * @return character.
+	 */
+	public static char charAt(char[][] chunks, int index) {
+		return chunks[index >>> CHUNK_SHIFT][index & (CHUNK - 1)];
+	}
+
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK = 1 << CHUNK_SHIFT;
+
+	private char[][] chunks = new char[16][];
+	private int length;
+}
@@ -0,0 +1,97 @@
+package game.weekend.texteditor;
+
+import java.util.Arrays;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Text kept in an array of its own: a snapshot of a document that is not a
+ * piece table, or the original text of a piece table.
+ */
+public class ArraySnapshot implements TextSnapshot {
+
+	/**
+	 * Copy the text of the document. The length and the text are read under the
+	 * read lock of the document, so a change made by another thread is seen
+	 * either whole or not at all.
+	 *
+	 * @param doc document.
+	 * @return snapshot of the text.
+	 */
+	public static ArraySnapshot of(Document doc) {
+		char[][] chars = new char[1][];
+		doc.render(new Runnable() {
+			@Override
+			public void run() {
+				Segment seg = new Segment();
+				try {
+					doc.getText(0, doc.getLength(), seg);
+				} catch (BadLocationException e) {
+					throw new IllegalStateException(e);
+				}
+				// The segment may refer to the array of the document itself
+				chars[0] = Arrays.copyOfRange(seg.array, seg.offset, seg.offset + seg.count);
+			}
+		});
+		return new ArraySnapshot(chars[0]);
+	}
+
+	/**
+	 * Copy the text.
+	 *
+	 * @param text text.
+	 * @return snapshot of the text.
+	 */
+	public static ArraySnapshot of(String text) {
+		return new ArraySnapshot(text.toCharArray());
+	}
+
+	/**
+	 * Take the first characters of the array. They are copied only if the array
+	 * is longer, and the array must not be changed afterwards.
+	 *
+	 * @param chars  array.
+	 * @param length number of characters.
+	 * @return snapshot of the text.
+	 */
+	public static ArraySnapshot of(char[] chars, int length) {
+		return new ArraySnapshot((length == chars.length) ? chars : Arrays.copyOf(chars, length));
+	}
+
+	private ArraySnapshot(char[] chars) {
+		this.chars = chars;
+	}
+
+	@Override
+	public void getText(int offset, int length, Segment txt) {
+		if (offset < 0 || length < 0 || offset + length > chars.length)
+			throw new IndexOutOfBoundsException(offset + length);
+		txt.array = chars;
+		txt.offset = offset;
+		txt.count = length;
+	}
+
+	@Override
+	public int length() {
+		return chars.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new String(chars, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(chars);
+	}
+
+	private final char[] chars;
+}
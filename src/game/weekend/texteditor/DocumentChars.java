@@ -0,0 +1,170 @@
+package game.weekend.texteditor;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Characters of a document seen as a CharSequence, without copying the text.
+ * <p>
+ * The characters are read through Document.getText() with a partial return, so
+ * the document hands out the array where it keeps the characters, and only the
+ * last received part of the text is remembered. Reading the text in a row, or
+ * nearly in a row, costs one call to the document per part. The object must not
+ * be used after the document is changed, unless reset() is called.
+ * <p>
+ * The characters that have to be made, decoded from a mapped file or read from
+ * the journal, are put into one buffer of the object, so reading a large text
+ * does not create an array for every part.
+ * <p>
+ * A snapshot of the text is read the same way, and then the object can be used
+ * in any thread.
+ */
+public class DocumentChars implements CharSequence {
+
+	/**
+	 * Create a view of the whole text of the document.
+	 *
+	 * @param doc document.
+	 */
+	public DocumentChars(Document doc) {
+		this(doc, 0, doc.getLength());
+	}
+
+	/**
+	 * Create a view of a part of the text of the document.
+	 *
+	 * @param doc   document.
+	 * @param start offset of the first character.
+	 * @param end   offset after the last character.
+	 */
+	public DocumentChars(Document doc, int start, int end) {
+		this.doc = doc;
+		this.snapshot = null;
+		this.start = start;
+		this.end = end;
+		seg.setPartialReturn(true);
+	}
+
+	/**
+	 * Create a view of a part of the snapshot of the text.
+	 *
+	 * @param snapshot snapshot of the text.
+	 * @param start    offset of the first character.
+	 * @param end      offset after the last character.
+	 */
+	public DocumentChars(TextSnapshot snapshot, int start, int end) {
+		this.doc = null;
+		this.snapshot = snapshot;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Get the document.
+	 *
+	 * @return document, or null if a snapshot is read.
+	 */
+	public Document getDocument() {
+		return doc;
+	}
+
+	/**
+	 * Forget the received part of the text and take the whole text of the
+	 * document again. Called after the document has been changed.
+	 */
+	public void reset() {
+		start = 0;
+		end = doc.getLength();
+		segStart = 0;
+		segEnd = 0;
+		// The buffer of a shorter text is too small now
+		if (buffer != null && buffer.length < Math.min(BUFFER, end))
+			buffer = null;
+	}
+
+	@Override
+	public int length() {
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		int i = start + index;
+		if (i < segStart || i >= segEnd) {
+			if (index < 0 || i >= end)
+				throw new IndexOutOfBoundsException(index);
+			fetch(i);
+		}
+		return seg.array[seg.offset + (i - segStart)];
+	}
+
+	@Override
+	public CharSequence subSequence(int from, int to) {
+		if (from < 0 || to > length() || from > to)
+			throw new IndexOutOfBoundsException(from);
+		if (snapshot != null)
+			return new DocumentChars(snapshot, start + from, start + to);
+		return new DocumentChars(doc, start + from, start + to);
+	}
+
+	@Override
+	public String toString() {
+		if (snapshot != null)
+			return snapshot.subSequence(start, end).toString();
+		try {
+			return doc.getText(start, end - start);
+		} catch (BadLocationException e) {
+			throw new IndexOutOfBoundsException(e.offsetRequested());
+		}
+	}
+
+	/**
+	 * Receive the part of the text containing the offset.
+	 */
+	private void fetch(int i) {
+		// Going back, a part ending at the offset is taken, so that the next
+		// characters back are there too
+		int from = i;
+		if (i < segStart)
+			from = Math.max(start, i - BACK + 1);
+		try {
+			do {
+				if (buffer == null)
+					buffer = new char[Math.min(BUFFER, end - start)];
+				if (snapshot != null)
+					snapshot.getText(from, end - from, seg, buffer);
+				else if (doc instanceof PieceDocument)
+					((PieceDocument) doc).getText(from, end - from, seg, buffer);
+				else if (doc instanceof LargeDocument)
+					((LargeDocument) doc).getText(from, end - from, seg, buffer);
+				else
+					doc.getText(from, end - from, seg);
+				segStart = from;
+				segEnd = from + seg.count;
+				from = segEnd;
+			} while (segEnd <= i);
+		} catch (BadLocationException e) {
+			throw new IndexOutOfBoundsException(e.offsetRequested());
+		}
+	}
+
+	/** How far back the part of the text is taken when reading backwards */
+	private static final int BACK = 4 * 1024;
+	/**
+	 * The most characters of the buffer. A decoded block of a mapped file fits: it
+	 * may have one character more than its 16K bytes
+	 */
+	private static final int BUFFER = 16 * 1024 + 1;
+
+	private final Document doc;
+	private final TextSnapshot snapshot;
+	private int start;
+	private int end;
+
+	private final Segment seg = new Segment();
+	private int segStart = 0;
+	private int segEnd = 0;
+	/** Created with the first part, not longer than the text */
+	private char[] buffer;
+}
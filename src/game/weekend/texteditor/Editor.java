@@ -1,6 +1,7 @@
 package game.weekend.texteditor;
 
 import java.awt.Font;
+import java.awt.Rectangle;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.dnd.DnDConstants;
 import java.awt.dnd.DropTarget;
@@ -21,11 +22,15 @@ import javax.swing.JEditorPane;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.undo.UndoManager;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.EditorKit;
 
 /**
  * Text editor.
@@ -41,6 +46,10 @@ public class Editor {
 		// The pane is editable
 		pane.setEditable(true);
 
+		// Kits for ordinary and for large memory-mapped files
+		plainKit = pane.getEditorKit();
+		largeKit = new LargeEditorKit();
+
 		// I put it in a JScrollPane
 		spane = new JScrollPane();
 		spane.getViewport().add(pane);
@@ -70,12 +79,7 @@ public class Editor {
 		// Intercepting text selection
 		pane.addCaretListener(new CaretListener() {
 			public void caretUpdate(CaretEvent ce) {
-				// If there is selected text, then allow Cut and Copy otherwise block.
-				boolean enabled = pane.getSelectionStart() != pane.getSelectionEnd();
-				if (act != null) {
-					act.setEnabledCut(enabled);
-					act.setEnabledCopy(enabled);
-				}
+				caretChanged();
 			}
 		});
 
@@ -162,13 +166,111 @@ public class Editor {
 	 * @param arg - text for editing.
 	 */
 	public void setText(String text) {
-		pane.setText(text);
+		// Before the kit, which sets a document of its own
+		closeDocument();
+		if (pane.getEditorKit() != plainKit)
+			pane.setEditorKit(plainKit);
+		// The document is a piece table, so edits far from one another do not move
+		// the text
+		pane.setDocument(new PieceDocument(text));
+		readOnly = false;
+		pane.setEditable(!loading);
+		startEditing();
+	}
+
+	/**
+	 * Set the text of a large memory-mapped file for editing.
+	 * 
+	 * @param text text of the file.
+	 */
+	public void setLargeText(MappedText text) {
+		closeDocument();
+		if (pane.getEditorKit() != largeKit)
+			pane.setEditorKit(largeKit);
+		pane.setDocument(new LargeDocument(text));
+		// Incorrect bytes are shown as U+FFFD and would be saved so, the file can only
+		// be read
+		readOnly = text.isMalformed();
+		pane.setEditable(!readOnly && !loading);
+		startEditing();
+	}
+
+	/**
+	 * Can the text only be read? This is a large file that is not correct UTF-8.
+	 * 
+	 * @return true/false.
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Begin or end loading of a file by chunks (appendText()). Meanwhile the text
+	 * can be read but not edited: the chunks are not in the history, and the undo
+	 * of an edit made between them would restore the lines as they were before
+	 * the next chunk.
+	 * 
+	 * @param loading true - the chunks are being appended, false - loading is
+	 *                over.
+	 */
+	public void setLoading(boolean loading) {
+		this.loading = loading;
+		pane.setEditable(!loading && !readOnly);
+	}
+
+	/**
+	 * Set the line ends with which the text is to be saved. The document keeps
+	 * only "\n", as DefaultEditorKit.read() leaves it.
+	 * 
+	 * @param separator "\n", "\r\n" or "\r".
+	 */
+	public void setLineSeparator(String separator) {
+		pane.getDocument().putProperty(DefaultEditorKit.EndOfLineStringProperty, separator);
+	}
+
+	/**
+	 * Get the line ends with which the text is to be saved. A large file keeps its
+	 * line ends in the text, so for it they are "\n".
+	 * 
+	 * @return line ends.
+	 */
+	public String getLineSeparator() {
+		Object separator = pane.getDocument().getProperty(DefaultEditorKit.EndOfLineStringProperty);
+		return (separator instanceof String) ? (String) separator : "\n";
+	}
+
+	/**
+	 * Is a large memory-mapped file being edited?
+	 * 
+	 * @return true/false.
+	 */
+	public boolean isLarge() {
+		return pane.getDocument() instanceof LargeDocument;
+	}
+
+	/**
+	 * Release the file the document being replaced keeps for the large texts
+	 * inserted into it.
+	 */
+	private void closeDocument() {
+		Document doc = pane.getDocument();
+		if (doc instanceof PieceDocument)
+			((PieceDocument) doc).close();
+		else if (doc instanceof LargeDocument)
+			((LargeDocument) doc).close();
+	}
+
+	/**
+	 * Prepare the newly set text for editing.
+	 */
+	private void startEditing() {
 		pane.setCaretPosition(0);
 		pane.requestFocus();
 
-		// A new UndoManager is created for the new text.
+		// The history of the changes is started anew for the new text. It may take
+		// as many megabytes as the settings say.
 		if (undoManager == null)
-			undoManager = new UndoManager();
+			undoManager = new UndoHistory(Proper.getProperty("UndoHistoryMB", 64) * 1024L * 1024L);
 		else
 			undoManager.discardAllEdits();
 
@@ -176,105 +278,333 @@ public class Editor {
 		pane.getDocument().addUndoableEditListener(undoManager);
 
 		// Its functionality implements the "Undo" and "Redo" menu functions.,
+		showUndoState();
+
+		// Keep Undo and Redo menu items active as the text changes
+		pane.getDocument().removeDocumentListener(textListener);
+		pane.getDocument().addDocumentListener(textListener);
+
+		setChanged(false);
+		showPosition();
+	}
+
+	/**
+	 * Get the index of the beginnings of the lines of the text.
+	 * 
+	 * @return index of the beginnings of the lines or null if the document does
+	 *         not keep it.
+	 */
+	public LineIndex getLineIndex() {
+		Document doc = pane.getDocument();
+		if (doc instanceof PieceDocument)
+			return ((PieceDocument) doc).getLineIndex();
+		if (doc instanceof LargeDocument)
+			return ((LargeDocument) doc).getLineIndex();
+		return null;
+	}
+
+	/**
+	 * Begin a batch of changes. Until the batch ends, the changes of the text and
+	 * the moves of the caret only are noted, and the menu items and the status bar
+	 * are updated once, when the batch ends. The batches may be nested, only the
+	 * outer one counts.
+	 * <p>
+	 * The view of the text still follows every change: Swing views must see each
+	 * change of the document, and the repaints they ask for are joined by the
+	 * RepaintManager anyway.
+	 */
+	public void beginBatch() {
+		++batch;
+	}
+
+	/**
+	 * End a batch of changes and show what they have changed.
+	 */
+	public void endBatch() {
+		if (--batch == 0)
+			showChanges();
+	}
+
+	/**
+	 * Show what the changes of the text and the moves of the caret have changed.
+	 */
+	private void showChanges() {
+		if (textChanged) {
+			textChanged = false;
+			showUndoState();
+		}
+		if (caretMoved) {
+			caretMoved = false;
+			showCaret();
+		}
+	}
+
+	/**
+	 * The caret has moved, or the selection has changed.
+	 */
+	private void caretChanged() {
+		if (batch > 0)
+			caretMoved = true;
+		else
+			showCaret();
+	}
+
+	/**
+	 * Enable the menu items that need a selection and show the position of the
+	 * caret.
+	 */
+	private void showCaret() {
+		// If there is selected text, then allow Cut and Copy otherwise block.
+		boolean enabled = pane.getSelectionStart() != pane.getSelectionEnd();
+		if (act != null) {
+			act.setEnabledCut(enabled);
+			act.setEnabledCopy(enabled);
+		}
+
+		showPosition();
+	}
+
+	/**
+	 * Enable "Undo" and "Redo" if there is something to undo or redo.
+	 */
+	private void showUndoState() {
 		act.setEnabledUndo(undoManager.canUndo());
 		act.setEnabledRedo(undoManager.canRedo());
+	}
 
-		// Replace/install document listener to keep Undo and Redo menu items active
-		pane.getDocument().addDocumentListener(new DocumentListener() {
-			{
-				pane.getDocument().removeDocumentListener(this);
-			}
+	/**
+	 * Show the line and the column of the caret and the number of lines in the
+	 * status bar. The line is found by a binary search in the index of the
+	 * beginnings of the lines, so it costs nothing even in a huge text.
+	 */
+	private void showPosition() {
+		LineIndex lines = getLineIndex();
+		if (lines == null)
+			return;
 
-			@Override
-			public void insertUpdate(DocumentEvent e) {
-				act.setEnabledUndo(undoManager.canUndo());
-				act.setEnabledRedo(undoManager.canRedo());
-			}
+		int dot = pane.getCaret().getDot();
+		int line = lines.getLineOfOffset(dot);
+		int column = dot - lines.getLineStart(line);
+		WeekendTextEditor.status.showText1(
+				Loc.get("line") + " " + (line + 1) + ", " + Loc.get("column") + " " + (column + 1));
+		WeekendTextEditor.status.showText2(Loc.get("lines") + ": " + lines.getLineCount());
+	}
 
-			@Override
-			public void removeUpdate(DocumentEvent e) {
-				act.setEnabledUndo(undoManager.canUndo());
-				act.setEnabledRedo(undoManager.canRedo());
-			}
+	/**
+	 * Take a snapshot of the text that can be saved or read by another thread
+	 * while the text is being edited. The snapshot may be taken by any thread:
+	 * taking it waits only for the edit being made, not for reading, and until the
+	 * next edit every snapshot is the same object.
+	 * 
+	 * @return snapshot of the text.
+	 */
+	public TextSnapshot getSnapshot() {
+		return TextSnapshot.of(pane.getDocument());
+	}
 
-			@Override
-			public void changedUpdate(DocumentEvent e) {
-				act.setEnabledUndo(undoManager.canUndo());
-				act.setEnabledRedo(undoManager.canRedo());
-			}
-		});
+	/**
+	 * Get the version of the text. A change gives the text a new version, undo and
+	 * redo return it the version it had, so the text is the same as it was when
+	 * its version is the same.
+	 * 
+	 * @return version of the text.
+	 */
+	public long getVersion() {
+		return undoManager.getVersion();
+	}
 
-		setChanged(false);
+	/**
+	 * Append text of the file being loaded to the end of the text. The addition is
+	 * not a change of the text and cannot be undone, the caret stays in place. The
+	 * text cannot be edited until loading is over (setLoading()).
+	 * 
+	 * @param text the next chunk of the file.
+	 */
+	public void appendText(String text) {
+		Document doc = pane.getDocument();
+		int end = doc.getLength();
+		int dot = pane.getCaret().getDot();
+		int mark = pane.getCaret().getMark();
+
+		// Without the history the addition gets no version
+		beginBatch();
+		doc.removeUndoableEditListener(undoManager);
+		try {
+			doc.insertString(end, text, null);
+		} catch (BadLocationException ignored) {
+		} finally {
+			doc.addUndoableEditListener(undoManager);
+		}
+
+		// The caret at the end of the text would move along with the addition
+		if (dot == end && mark == end)
+			pane.setCaretPosition(end);
+
+		// The number of lines has grown
+		caretMoved = true;
+		endBatch();
 	}
 
 	/**
-	 * Has the text been changed?
+	 * Has the text been changed? The text is changed if its version is not the
+	 * one it had when it was saved.
 	 * 
 	 * @return true/false.
 	 */
-
 	public boolean isChanged() {
-		return changed;
+		return getVersion() != savedVersion;
 	}
 
 	/**
 	 * Set the flag for changes in the text.
 	 * 
-	 * @parameter changed the flag of the presence of changes in the text.
+	 * @param changed the flag of the presence of changes in the text.
 	 */
 	public void setChanged(boolean changed) {
-		this.changed = changed;
-
-		if (!changed) {
-
-			// Replace/install document listener to detect changes
-			pane.getDocument().addDocumentListener(new DocumentListener() {
-				{
-					pane.getDocument().removeDocumentListener(this);
-				}
-
-				@Override
-				public void insertUpdate(DocumentEvent e) {
-					Editor.this.changed = true;
-					pane.getDocument().removeDocumentListener(this);
-				}
+		if (changed)
+			savedVersion = -1;
+		else
+			setSaved(getVersion());
+	}
 
-				@Override
-				public void removeUpdate(DocumentEvent e) {
-					Editor.this.changed = true;
-					pane.getDocument().removeDocumentListener(this);
-				}
+	/**
+	 * End the step of the history being typed, so that the text typed next is a
+	 * new step and undo can return to the present version. Called when a snapshot
+	 * of the text is taken for saving, as the user may go on typing while it is
+	 * written.
+	 */
+	public void endStep() {
+		undoManager.endStep();
+	}
 
-				@Override
-				public void changedUpdate(DocumentEvent e) {
-					Editor.this.changed = true;
-					pane.getDocument().removeDocumentListener(this);
-				}
-			});
-		}
+	/**
+	 * Remember the version of the text that has been saved. The step of the
+	 * history has been ended when the text was taken for saving (endStep()), or is
+	 * ended now if the text is still that version.
+	 * 
+	 * @param version version of the saved text.
+	 */
+	public void setSaved(long version) {
+		savedVersion = version;
+		if (version == getVersion())
+			undoManager.endStep();
 	}
 
 	/**
 	 * "Undo"
 	 */
 	public void undo() {
-		if (undoManager.canUndo())
-			undoManager.undo();
+		// A step may be many changes, such as a typed word
+		beginBatch();
+		try {
+			if (undoManager.canUndo())
+				undoManager.undo();
+		} finally {
+			endBatch();
+		}
 	}
 
 	/**
 	 * "Redo"
 	 */
 	public void redo() {
-		if (undoManager.canRedo())
-			undoManager.redo();
+		beginBatch();
+		try {
+			if (undoManager.canRedo())
+				undoManager.redo();
+		} finally {
+			endBatch();
+		}
+	}
+
+	/**
+	 * "Go to..."
+	 * <p>
+	 * Asks for a line (and a column after a colon) or for an offset after '#' and
+	 * puts the caret there. The beginning of the line is taken from the index of
+	 * the beginnings of the lines, so the text is not scanned.
+	 */
+	public void goTo() {
+		LineIndex lines = getLineIndex();
+		if (lines == null)
+			return;
+
+		int line = lines.getLineOfOffset(pane.getCaretPosition());
+		String value = Mes.inp(Loc.get("line_column_or_offset") + ":", "" + (line + 1));
+		if (value == null)
+			return;
+
+		try {
+			value = value.trim();
+			if (value.startsWith("#")) {
+				int length = pane.getDocument().getLength();
+				goToOffset((int) Math.min(Math.max(Long.parseLong(value.substring(1).trim()), 0), length));
+			} else {
+				String[] parts = value.split(":", 2);
+				line = (int) Math.min(Math.max(Long.parseLong(parts[0].trim()), 1), lines.getLineCount()) - 1;
+				int column = (parts.length > 1) ? (int) Math.max(Long.parseLong(parts[1].trim()), 1) : 1;
+				goTo(line, column - 1);
+			}
+		} catch (NumberFormatException e) {
+			WeekendTextEditor.status.showMessage(Loc.get("invalid_position") + ": " + value);
+		}
+	}
+
+	/**
+	 * Go to the line and column of the text.
+	 * 
+	 * @param line   line number, from 0.
+	 * @param column column number, from 0. The column does not go beyond the end
+	 *               of the line.
+	 */
+	public void goTo(int line, int column) {
+		LineIndex lines = getLineIndex();
+		if (lines == null)
+			return;
+
+		line = Math.min(Math.max(line, 0), lines.getLineCount() - 1);
+		int start = lines.getLineStart(line);
+		int end = (line + 1 < lines.getLineCount()) ? lines.getLineStart(line + 1) - 1 : pane.getDocument().getLength();
+		goToOffset((int) Math.min((long) start + Math.max(column, 0), end));
+	}
+
+	/**
+	 * Put the caret at the offset and show it in the middle of the window.
+	 * 
+	 * @param offset offset in the text.
+	 */
+	private void goToOffset(int offset) {
+		pane.setCaretPosition(offset);
+		scrollToCenter(offset);
+		pane.requestFocus();
+	}
+
+	/**
+	 * Scroll the text so that the offset is in the middle of the visible part.
+	 * 
+	 * @param offset offset in the text.
+	 */
+	private void scrollToCenter(int offset) {
+		try {
+			Rectangle r = pane.modelToView2D(offset).getBounds();
+			Rectangle visible = pane.getVisibleRect();
+			r.y -= (visible.height - r.height) / 2;
+			r.height = visible.height;
+			pane.scrollRectToVisible(r);
+		} catch (BadLocationException ignored) {
+		}
 	}
 
 	/**
 	 * "Cut"
 	 */
 	public void cut() {
-		pane.cut();
+		beginBatch();
+		try {
+			pane.cut();
+		} finally {
+			endBatch();
+		}
 	}
 
 	/**
@@ -288,7 +618,13 @@ public class Editor {
 	 * "Paste"
 	 */
 	public void paste() {
-		pane.paste();
+		// The selection is removed and the text is inserted
+		beginBatch();
+		try {
+			pane.paste();
+		} finally {
+			endBatch();
+		}
 	}
 
 	/**
@@ -352,10 +688,62 @@ public class Editor {
 
 	private JEditorPane pane;
 	private JScrollPane spane;
+	private EditorKit plainKit;
+	private EditorKit largeKit;
 	private JPopupMenu popupMenu;
 
 	private boolean monoFont;
 	private int fontSize = 14;
-	private UndoManager undoManager;
-	private boolean changed = false;
+	private UndoHistory undoManager;
+
+	/** The file is not correct UTF-8 and can only be read */
+	private boolean readOnly = false;
+	/** A file is being loaded by chunks */
+	private boolean loading = false;
+
+	/** The version of the text when it was saved, -1 if never */
+	private long savedVersion = -1;
+
+	/** Depth of the nested batches of changes */
+	private int batch = 0;
+	/** The text has been changed during the batch */
+	private boolean textChanged = false;
+	/** The caret has moved during the batch */
+	private boolean caretMoved = false;
+
+	/** Keeps the menu items "Undo" and "Redo" up to date */
+	private final DocumentListener textListener = new DocumentListener() {
+		@Override
+		public void insertUpdate(DocumentEvent e) {
+			textChanged();
+		}
+
+		@Override
+		public void removeUpdate(DocumentEvent e) {
+			textChanged();
+		}
+
+		@Override
+		public void changedUpdate(DocumentEvent e) {
+			textChanged();
+		}
+
+		private void textChanged() {
+			if (textChanged)
+				return;
+			textChanged = true;
+
+			// The history gets the edit after the listeners of the document, so the menu
+			// items are updated later. Outside a batch, all the changes made before
+			// that are shown at once.
+			if (batch == 0)
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						if (batch == 0)
+							showChanges();
+					}
+				});
+		}
+	};
 }
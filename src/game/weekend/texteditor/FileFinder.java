@@ -0,0 +1,397 @@
+package game.weekend.texteditor;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.JFrame;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+
+/**
+ * Search for text in the files of a directory tree and replace it.
+ */
+public class FileFinder {
+
+	/**
+	 * Create an object to search for text in files.
+	 *
+	 * @param filer opens the files of the matches.
+	 * @param frame frame of the application.
+	 * @param laf   LaF
+	 */
+	public FileFinder(Filer filer, JFrame frame, LaF laf) {
+		this.filer = filer;
+		this.appFrame = frame;
+		this.laf = laf;
+		this.pattern = Proper.getProperty("FilesPattern", "");
+		this.directory = Proper.getProperty("FilesDirectory", System.getProperty("user.dir"));
+		this.mask = Proper.getProperty("FilesMask", "");
+		this.replacement = Proper.getProperty("FilesReplacement", "");
+		this.caseSensitive = Proper.getProperty("FilesCaseSensitive", "FALSE").equalsIgnoreCase("TRUE");
+		this.regex = Proper.getProperty("FilesRegularExpression", "FALSE").equalsIgnoreCase("TRUE");
+	}
+
+	/**
+	 * Displays a dialog box for specifying a search pattern and a directory, and
+	 * then searches the files of the directory.
+	 */
+	@SuppressWarnings("serial")
+	public void find() {
+		if (frame == null) {
+			frame = new FileFinderFrame(appFrame) {
+				{
+					setPattern(pattern);
+					setDirectory(directory);
+					setMask(mask);
+					setReplacement(replacement);
+					setCase(caseSensitive);
+					setRegex(regex);
+					laf.addUpdateComponent(this);
+				}
+
+				@Override
+				public void find() {
+					takeAttributes();
+					FileFinder.this.find(this);
+					whatFocus();
+				}
+
+				@Override
+				public void replace() {
+					takeAttributes();
+					FileFinder.this.replace(this);
+				}
+
+				@Override
+				public void stop() {
+					FileFinder.this.stop();
+				}
+
+				@Override
+				public void open(FileSearch.Hit hit) {
+					filer.openFileByName(hit.getFile(), hit.getLine(), hit.getColumn());
+				}
+
+				/**
+				 * Take the search attributes from the frame and remember them.
+				 */
+				private void takeAttributes() {
+					pattern = getPattern();
+					Proper.setProperty("FilesPattern", pattern);
+
+					directory = getDirectory().getPath();
+					Proper.setProperty("FilesDirectory", directory);
+
+					mask = getMask();
+					Proper.setProperty("FilesMask", mask);
+
+					replacement = getReplacement();
+					Proper.setProperty("FilesReplacement", replacement);
+
+					caseSensitive = getCase();
+					Proper.setProperty("FilesCaseSensitive", caseSensitive ? "TRUE" : "FALSE");
+
+					regex = getRegex();
+					Proper.setProperty("FilesRegularExpression", regex ? "TRUE" : "FALSE");
+				}
+
+				@Override
+				public void close() {
+					super.close();
+					laf.removeUpdateComponent(frame);
+					frame = null;
+				}
+			};
+		}
+		frame.setVisible(true);
+		frame.whatFocus();
+	}
+
+	/**
+	 * Begin the search with the attributes taken from the frame.
+	 *
+	 * @param frame frame that shows the matches.
+	 */
+	private void find(FileFinderFrame frame) {
+		stop();
+		frame.clearResults();
+
+		File dir = getDirectory(frame);
+		if (dir == null)
+			return;
+
+		try {
+			search = new FileSearch(dir, mask, pattern, caseSensitive, regex) {
+				@Override
+				public void found(List<FileSearch.Hit> hits) {
+					if (search != this)
+						return;
+					frame.addResults(hits);
+					showCount(frame, this, Loc.get("searching"));
+				}
+
+				@Override
+				public void finished(boolean truncated) {
+					if (search != this)
+						return;
+					search = null;
+					frame.setSearching(false);
+					showCount(frame, this, truncated ? Loc.get("too_many_matches") : "");
+				}
+
+				@Override
+				public void failed(Throwable e) {
+					if (search != this)
+						return;
+					search = null;
+					frame.setSearching(false);
+					frame.showStatus(Loc.get("failed_to_search") + " " + directory + ": " + e);
+				}
+			};
+		} catch (PatternSyntaxException e) {
+			frame.showStatus(Loc.get("invalid_regular_expression") + ": " + e.getDescription());
+			return;
+		} catch (IllegalArgumentException e) {
+			frame.showStatus(Loc.get("invalid_file_names") + ": " + mask);
+			return;
+		}
+
+		frame.setSearching(true);
+		frame.showStatus(Loc.get("searching"));
+		search.start();
+	}
+
+	/**
+	 * Count the replacements in the files and show them, so that the user decides
+	 * whether to make them.
+	 *
+	 * @param frame frame that shows the progress.
+	 */
+	private void replace(FileFinderFrame frame) {
+		stop();
+
+		File dir = getDirectory(frame);
+		if (dir == null)
+			return;
+
+		try {
+			replace(frame, new FilePool(dir, mask), false);
+		} catch (IllegalArgumentException e) {
+			frame.showStatus(Loc.get("invalid_file_names") + ": " + mask);
+		}
+	}
+
+	/**
+	 * Count the replacements, or make them.
+	 *
+	 * @param frame  frame that shows the progress.
+	 * @param files  files.
+	 * @param commit true - replace, false - only count.
+	 */
+	private void replace(FileFinderFrame frame, FilePool files, boolean commit) {
+		List<FileReplace.Change> changes = new ArrayList<FileReplace.Change>();
+		try {
+			replacing = new FileReplace(files, pattern, caseSensitive, regex, replacement, commit) {
+				@Override
+				public void changed(List<FileReplace.Change> portion) {
+					if (replacing != this)
+						return;
+					changes.addAll(portion);
+					frame.showStatus(String.format("%s: %,d", Loc.get("files_searched"), getFilesProcessed()));
+				}
+
+				@Override
+				public void finished() {
+					if (replacing != this)
+						return;
+					replacing = null;
+					frame.setSearching(false);
+					if (commit)
+						replaced(frame, changes);
+					else if (!isCancelled())
+						confirm(frame, changes);
+					else
+						frame.showStatus("");
+				}
+
+				@Override
+				public void failed(Throwable e) {
+					if (replacing != this)
+						return;
+					replacing = null;
+					frame.setSearching(false);
+					frame.showStatus(Loc.get("failed_to_search") + " " + directory + ": " + e);
+				}
+			};
+		} catch (PatternSyntaxException e) {
+			frame.showStatus(Loc.get("invalid_regular_expression") + ": " + e.getDescription());
+			return;
+		}
+
+		frame.setSearching(true);
+		frame.showStatus(Loc.get("searching"));
+		replacing.start();
+	}
+
+	/**
+	 * Show the replacements file by file and make them if the user agrees.
+	 */
+	private void confirm(FileFinderFrame frame, List<FileReplace.Change> changes) {
+		// The files come in the order the threads have finished them
+		sort(changes);
+		List<File> files = new ArrayList<File>();
+		long total = 0;
+		for (FileReplace.Change c : changes) {
+			if (c.getError() == null) {
+				files.add(c.getFile());
+				total += c.getCount();
+			}
+		}
+		if (changes.isEmpty()) {
+			frame.showStatus(Loc.get("unable_to_find") + " \"" + pattern + "\"");
+			return;
+		}
+		frame.showStatus("");
+
+		String text = String.format("%s: %,d   %s: %,d", Loc.get("replacements_to_make"), total,
+				Loc.get("files_to_change"), files.size());
+		if (files.isEmpty()) {
+			showChanges(frame, text, changes, JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		if (showChanges(frame, text, changes, JOptionPane.OK_CANCEL_OPTION,
+				JOptionPane.QUESTION_MESSAGE) != JOptionPane.OK_OPTION)
+			return;
+
+		// The text in the editor must not be lost, nor written over the replaced file
+		if (isAmong(filer.getFile(), files) && !filer.saveFileIfNecessary())
+			return;
+
+		replace(frame, new FilePool(new File(directory), files), true);
+	}
+
+	/**
+	 * Show the result of the replacement. The file in the editor is read again if
+	 * it has been replaced.
+	 */
+	private void replaced(FileFinderFrame frame, List<FileReplace.Change> changes) {
+		sort(changes);
+		List<File> files = new ArrayList<File>();
+		List<FileReplace.Change> errors = new ArrayList<FileReplace.Change>();
+		long total = 0;
+		for (FileReplace.Change c : changes) {
+			if (c.getError() == null) {
+				files.add(c.getFile());
+				total += c.getCount();
+			} else {
+				errors.add(c);
+			}
+		}
+
+		// The matches found before are no longer where they were
+		frame.clearResults();
+		frame.showStatus(String.format("%s: %,d   %s: %,d", Loc.get("replacements_made"), total,
+				Loc.get("files_changed"), files.size()));
+
+		File open = filer.getFile();
+		if (isAmong(open, files))
+			filer.open(open);
+
+		if (!errors.isEmpty())
+			showChanges(frame, Loc.get("files_not_changed") + ":", errors, JOptionPane.DEFAULT_OPTION,
+					JOptionPane.WARNING_MESSAGE);
+	}
+
+	/**
+	 * Show the list of the files with their replacements.
+	 */
+	private int showChanges(FileFinderFrame frame, String text, List<FileReplace.Change> changes, int option,
+			int type) {
+		JList<FileReplace.Change> list = new JList<FileReplace.Change>(
+				changes.toArray(new FileReplace.Change[changes.size()]));
+		JScrollPane scroll = new JScrollPane(list);
+		scroll.setPreferredSize(new Dimension(500, 300));
+		return JOptionPane.showConfirmDialog(frame, new Object[] { text, scroll }, Loc.get("replace_in_files"),
+				option, type);
+	}
+
+	/**
+	 * Sort the changes by the names of the files.
+	 */
+	private static void sort(List<FileReplace.Change> changes) {
+		changes.sort(new Comparator<FileReplace.Change>() {
+			@Override
+			public int compare(FileReplace.Change a, FileReplace.Change b) {
+				return a.getFile().compareTo(b.getFile());
+			}
+		});
+	}
+
+	/**
+	 * Is the file among the files?
+	 */
+	private static boolean isAmong(File file, List<File> files) {
+		if (file == null)
+			return false;
+		for (File f : files)
+			if (f.getAbsoluteFile().equals(file.getAbsoluteFile()))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Stop the search or the replacement.
+	 */
+	private void stop() {
+		if (search != null)
+			search.stop();
+		if (replacing != null)
+			replacing.stop();
+	}
+
+	/**
+	 * Get the directory to search in.
+	 *
+	 * @return directory, or null if there is none.
+	 */
+	private File getDirectory(FileFinderFrame frame) {
+		if (pattern.isEmpty())
+			return null;
+
+		File dir = new File(directory);
+		if (!dir.isDirectory()) {
+			frame.showStatus(Loc.get("directory") + " " + directory + " " + Loc.get("not_found") + ".");
+			return null;
+		}
+		return dir;
+	}
+
+	/**
+	 * Show the number of the files searched and of the matches found.
+	 */
+	private void showCount(FileFinderFrame frame, FileSearch search, String note) {
+		String text = String.format("%s: %,d   %s: %,d", Loc.get("files_searched"), search.getFilesSearched(),
+				Loc.get("matches"), frame.getResultCount());
+		frame.showStatus(note.isEmpty() ? text : text + "   " + note);
+	}
+
+	private JFrame appFrame;
+	private Filer filer;
+	private LaF laf;
+
+	private FileFinderFrame frame;
+	private FileSearch search;
+	private FileReplace replacing;
+
+	private String pattern;
+	private String directory;
+	private String mask;
+	private String replacement;
+	private boolean caseSensitive;
+	private boolean regex;
+}
@@ -0,0 +1,466 @@
+package game.weekend.texteditor;
+
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.AbstractListModel;
+import javax.swing.ActionMap;
+import javax.swing.InputMap;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+
+/**
+ * Frame for searching the files of a directory, showing the matches and
+ * replacing them.
+ * <p>
+ * There may be very many matches. The list paints only the visible rows, and
+ * all the rows have the height and the width of the prototype row, so the list
+ * does not measure the matches when they are added. The matches are added in
+ * portions while the search goes on.
+ */
+@SuppressWarnings("serial")
+public abstract class FileFinderFrame extends JDialog {
+
+	/**
+	 * Create a frame for searching the files.
+	 *
+	 * @param owner the frame in which the JEditorFrame is located.
+	 */
+	public FileFinderFrame(JFrame owner) {
+		super(owner, Loc.get("find_in_files"), false);
+
+		// Default size and location
+		Proper.setBounds(this, 360, 180, 620, 450);
+
+		// Intercept Esc press to close frame
+		InputMap inputMap = getRootPane().getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+		inputMap.put(KeyStroke.getKeyStroke("pressed ESCAPE"), "Exit");
+		ActionMap aMap = getRootPane().getActionMap();
+		aMap.put("Exit", new AbstractAction() {
+			public void actionPerformed(ActionEvent actionEvent) {
+				close();
+			}
+		});
+
+		// Intercepting the closing of a frame to save its size and position
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent we) {
+				close();
+			}
+		});
+
+		// Displaying frame components
+		createComponents();
+	}
+
+	/**
+	 * Display frame components.
+	 */
+	private void createComponents() {
+		JLabel lblWhat = new JLabel(Loc.get("what") + ":");
+		fldWhat = new JTextField(40);
+
+		JLabel lblHow = new JLabel(Loc.get("how") + ":");
+		fldHow = new JTextField(40);
+
+		JLabel lblDir = new JLabel(Loc.get("directory") + ":");
+		fldDir = new JTextField(40);
+
+		JButton btnBrowse = new JButton("...");
+		btnBrowse.setToolTipText(Loc.get("browse"));
+		btnBrowse.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ae) {
+				browse();
+			}
+		});
+
+		JLabel lblMask = new JLabel(Loc.get("file_names") + ":");
+		fldMask = new JTextField(40);
+
+		chkCase = new JCheckBox(Loc.get("case_sensitive"));
+		chkRegex = new JCheckBox(Loc.get("regular_expression"));
+
+		btnFind = new JButton(Loc.get("find"));
+		getRootPane().setDefaultButton(btnFind);
+		Dimension psFind = btnFind.getPreferredSize();
+		psFind.width = 110;
+		btnFind.setMinimumSize(psFind);
+		btnFind.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ae) {
+				find();
+			}
+		});
+
+		btnReplace = new JButton(Loc.get("replace_all") + "...");
+		Dimension psReplace = btnReplace.getPreferredSize();
+		psReplace.width = 110;
+		btnReplace.setMinimumSize(psReplace);
+		btnReplace.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ae) {
+				replace();
+			}
+		});
+
+		btnStop = new JButton(Loc.get("stop"));
+		Dimension psStop = btnStop.getPreferredSize();
+		psStop.width = 110;
+		btnStop.setMinimumSize(psStop);
+		btnStop.setEnabled(false);
+		btnStop.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ae) {
+				stop();
+			}
+		});
+
+		JButton btnCancel = new JButton(Loc.get("cancel"));
+		Dimension psCancel = btnCancel.getPreferredSize();
+		psCancel.width = 110;
+		btnCancel.setMinimumSize(psCancel);
+		btnCancel.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ae) {
+				close();
+			}
+		});
+
+		results = new Results();
+		lstResults = new JList<FileSearch.Hit>(results);
+		lstResults.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		lstResults.setPrototypeCellValue(new FileSearch.Hit(null, "", 0, 0, 0, "W".repeat(80)));
+
+		// A match is opened by a double click or by Enter
+		lstResults.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					int i = lstResults.locationToIndex(e.getPoint());
+					if (i >= 0 && lstResults.getCellBounds(i, i).contains(e.getPoint()))
+						open(results.getElementAt(i));
+				}
+			}
+		});
+		lstResults.getInputMap().put(KeyStroke.getKeyStroke("pressed ENTER"), "Open");
+		lstResults.getActionMap().put("Open", new AbstractAction() {
+			public void actionPerformed(ActionEvent actionEvent) {
+				FileSearch.Hit hit = lstResults.getSelectedValue();
+				if (hit != null)
+					open(hit);
+			}
+		});
+
+		lblStatus = new JLabel(" ");
+
+		GBL g = new GBL((JPanel) getContentPane(), true);
+
+		g.addFixL(lblWhat, 1);
+		g.addExtH(fldWhat, 5);
+		g.addFixR(btnFind, 1);
+
+		g.newLine();
+		g.addFixL(lblHow, 1);
+		g.addExtH(fldHow, 5);
+		g.addFixR(btnReplace, 1);
+
+		g.newLine();
+		g.addFixL(lblDir, 1);
+		g.addExtH(fldDir, 4);
+		g.addFixL(btnBrowse, 1);
+		g.addFixR(btnStop, 1);
+
+		g.newLine();
+		g.addFixL(lblMask, 1);
+		g.addExtH(fldMask, 5);
+		g.addFixR(btnCancel, 1);
+
+		g.newLine();
+		g.addFixL(chkCase, 3);
+		g.addFixL(chkRegex, 3);
+
+		g.newLine();
+		g.addExtB(new JScrollPane(lstResults), 7, 1);
+
+		g.newLine();
+		g.addExtH(lblStatus, 7);
+	}
+
+	/**
+	 * Choose the directory.
+	 */
+	private void browse() {
+		JFileChooser chooser = new JFileChooser(getDirectory());
+		chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+			fldDir.setText(chooser.getSelectedFile().getPath());
+	}
+
+	/**
+	 * Focus in the What field.
+	 */
+	public void whatFocus() {
+		fldWhat.requestFocus();
+	}
+
+	/**
+	 * The actual search will be defined in Action.
+	 */
+	public abstract void find();
+
+	/**
+	 * Replace the pattern in the files, after showing how many replacements there
+	 * are going to be.
+	 */
+	public abstract void replace();
+
+	/**
+	 * Stop the search or the replacement.
+	 */
+	public abstract void stop();
+
+	/**
+	 * Open the file of the match.
+	 *
+	 * @param hit match.
+	 */
+	public abstract void open(FileSearch.Hit hit);
+
+	/**
+	 * Close frame.
+	 */
+	public void close() {
+		stop();
+		Proper.saveBounds(FileFinderFrame.this);
+		dispose();
+	}
+
+	/**
+	 * Show whether the search or the replacement is going on.
+	 *
+	 * @param searching true - the search or the replacement is going on.
+	 */
+	public void setSearching(boolean searching) {
+		btnFind.setEnabled(!searching);
+		btnReplace.setEnabled(!searching);
+		btnStop.setEnabled(searching);
+	}
+
+	/**
+	 * Remove the matches from the list.
+	 */
+	public void clearResults() {
+		results.clear();
+	}
+
+	/**
+	 * Add the matches to the end of the list.
+	 *
+	 * @param hits matches.
+	 */
+	public void addResults(List<FileSearch.Hit> hits) {
+		results.addAll(hits);
+	}
+
+	/**
+	 * Get the number of the matches in the list.
+	 *
+	 * @return number of the matches.
+	 */
+	public int getResultCount() {
+		return results.getSize();
+	}
+
+	/**
+	 * Show a message under the list.
+	 *
+	 * @param text message.
+	 */
+	public void showStatus(String text) {
+		lblStatus.setText(text);
+	}
+
+	/**
+	 * Get a substring to search for.
+	 *
+	 * @return substring to search for.
+	 */
+	public String getPattern() {
+		return fldWhat.getText();
+	}
+
+	/**
+	 * Set the substring to search for.
+	 *
+	 * @param pattern substring to search for.
+	 */
+	public void setPattern(String pattern) {
+		fldWhat.setText(pattern);
+	}
+
+	/**
+	 * Get the replacement.
+	 *
+	 * @return replacement.
+	 */
+	public String getReplacement() {
+		return fldHow.getText();
+	}
+
+	/**
+	 * Set the replacement.
+	 *
+	 * @param replacement replacement.
+	 */
+	public void setReplacement(String replacement) {
+		fldHow.setText(replacement);
+	}
+
+	/**
+	 * Get the directory to search in.
+	 *
+	 * @return directory.
+	 */
+	public File getDirectory() {
+		return new File(fldDir.getText().trim());
+	}
+
+	/**
+	 * Set the directory to search in.
+	 *
+	 * @param dir directory.
+	 */
+	public void setDirectory(String dir) {
+		fldDir.setText(dir);
+	}
+
+	/**
+	 * Get the mask of the names of the files.
+	 *
+	 * @return mask, such as *.txt.
+	 */
+	public String getMask() {
+		return fldMask.getText();
+	}
+
+	/**
+	 * Set the mask of the names of the files.
+	 *
+	 * @param mask mask, such as *.txt.
+	 */
+	public void setMask(String mask) {
+		fldMask.setText(mask);
+	}
+
+	/**
+	 * Get the case-insensitive search flag.
+	 *
+	 * @return case-insensitive search flag.
+	 */
+	public boolean getCase() {
+		return chkCase.isSelected();
+	}
+
+	/**
+	 * Set the search flag to be case-insensitive.
+	 *
+	 * @param caseSensitive case-insensitive search flag.
+	 */
+	public void setCase(boolean caseSensitive) {
+		chkCase.setSelected(caseSensitive);
+	}
+
+	/**
+	 * Get the regular expression flag.
+	 *
+	 * @return is the pattern a regular expression.
+	 */
+	public boolean getRegex() {
+		return chkRegex.isSelected();
+	}
+
+	/**
+	 * Set the regular expression flag.
+	 *
+	 * @param regex is the pattern a regular expression.
+	 */
+	public void setRegex(boolean regex) {
+		chkRegex.setSelected(regex);
+	}
+
+	/**
+	 * The matches shown in the list. Adding a portion of the matches repaints only
+	 * the rows added.
+	 */
+	private static class Results extends AbstractListModel<FileSearch.Hit> {
+
+		@Override
+		public int getSize() {
+			return hits.size();
+		}
+
+		@Override
+		public FileSearch.Hit getElementAt(int index) {
+			return hits.get(index);
+		}
+
+		void addAll(List<FileSearch.Hit> portion) {
+			if (portion.isEmpty())
+				return;
+			int first = hits.size();
+			hits.addAll(portion);
+			fireIntervalAdded(this, first, hits.size() - 1);
+		}
+
+		void clear() {
+			if (hits.isEmpty())
+				return;
+			int last = hits.size() - 1;
+			hits.clear();
+			fireIntervalRemoved(this, 0, last);
+		}
+
+		private final ArrayList<FileSearch.Hit> hits = new ArrayList<FileSearch.Hit>();
+	}
+
+	/** Pattern */
+	private JTextField fldWhat;
+	/** Replacement */
+	private JTextField fldHow;
+	/** Directory */
+	private JTextField fldDir;
+	/** Mask of the names of the files */
+	private JTextField fldMask;
+	/** Case sensitive */
+	private JCheckBox chkCase;
+	/** Regular expression */
+	private JCheckBox chkRegex;
+	/** Begin the search */
+	private JButton btnFind;
+	/** Replace in the files */
+	private JButton btnReplace;
+	/** Stop the search */
+	private JButton btnStop;
+	/** Matches */
+	private Results results;
+	private JList<FileSearch.Hit> lstResults;
+	/** Number of the files and the matches */
+	private JLabel lblStatus;
+}
@@ -0,0 +1,189 @@
+package game.weekend.texteditor;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Loading a file in the background.
+ * <p>
+ * The file is read and decoded by a worker thread, not by the Event Dispatch
+ * Thread, so the window does not freeze. An ordinary file is passed to the
+ * editor in chunks as they are decoded: the beginning of the file is shown at
+ * once, and the user can scroll and read while the rest is loading; the text
+ * can be edited when it is loaded. A large
+ * file is mapped into memory and is given to the editor as soon as its lines
+ * are counted. The progress and the Cancel button are shown in the status bar.
+ * <p>
+ * What to do when loading ends is defined by the creator of the object.
+ */
+public abstract class FileLoader extends SwingWorker<MappedText, String> {
+
+	/**
+	 * Create a file loader.
+	 *
+	 * @param file   file to load.
+	 * @param editor editor that receives the text.
+	 * @param large  true - map the file into memory, false - read it.
+	 */
+	public FileLoader(File file, Editor editor, boolean large) {
+		this.file = file;
+		this.editor = editor;
+		this.large = large;
+
+		addPropertyChangeListener(e -> {
+			if ("progress".equals(e.getPropertyName()) && !isCancelled())
+				WeekendTextEditor.status.setProgress((Integer) e.getNewValue());
+		});
+	}
+
+	/**
+	 * Start loading.
+	 */
+	public void start() {
+		WeekendTextEditor.status.startProgress(Loc.get("loading") + " " + file.getName(), () -> stop());
+		if (!large)
+			editor.setLoading(true);
+		execute();
+	}
+
+	/**
+	 * Cancel loading. What has been loaded can be edited at once, not in done(),
+	 * which for a cancelled loader may come after the next loader has started.
+	 */
+	public void stop() {
+		cancel(true);
+		WeekendTextEditor.status.stopProgress();
+		editor.setLoading(false);
+	}
+
+	@Override
+	protected MappedText doInBackground() throws Exception {
+		if (large)
+			return MappedText.map(file, percent -> setProgress(percent));
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				Reader reader = Channels.newReader(channel, Filer.CHARSET.newDecoder(), -1)) {
+			long size = Math.max(channel.size(), 1);
+
+			// The first chunk is small to show the beginning of the file quickly
+			char[] buf = new char[FIRST_CHUNK];
+			StringBuilder chunk = new StringBuilder(CHUNK);
+			boolean cr = false;
+			int n;
+			while ((n = reader.read(buf)) >= 0) {
+				if (isCancelled())
+					return null;
+
+				// Line ends are converted in the same way as DefaultEditorKit.read() does,
+				// and the kind of line ends is remembered to be restored when saving
+				for (int i = 0; i < n; ++i) {
+					char c = buf[i];
+					if (cr) {
+						chunk.append('\n');
+						cr = false;
+						if (c == '\n') {
+							crlf = true;
+							continue;
+						}
+						lonelyCr = true;
+					}
+					if (c == '\r')
+						cr = true;
+					else
+						chunk.append(c);
+				}
+
+				if (chunk.length() > 0) {
+					publish(chunk.toString());
+					chunk.setLength(0);
+				}
+				setProgress((int) (channel.position() * 100 / size));
+
+				if (buf.length < CHUNK)
+					buf = new char[CHUNK];
+			}
+			if (cr) {
+				lonelyCr = true;
+				publish("\n");
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void process(List<String> chunks) {
+		// Chunks may still arrive after loading has been cancelled
+		if (isCancelled())
+			return;
+		// The status bar shows the lines once for all the chunks
+		editor.beginBatch();
+		try {
+			for (String chunk : chunks)
+				editor.appendText(chunk);
+		} finally {
+			editor.endBatch();
+		}
+	}
+
+	@Override
+	protected void done() {
+		// A cancelled loader has already hidden its progress, and another one may be
+		// showing its own by now
+		if (!isCancelled()) {
+			WeekendTextEditor.status.stopProgress();
+			editor.setLoading(false);
+		}
+		try {
+			MappedText text = get();
+			if (text != null)
+				editor.setLargeText(text);
+			else
+				editor.setLineSeparator(crlf ? "\r\n" : lonelyCr ? "\r" : "\n");
+			loaded();
+		} catch (CancellationException e) {
+			cancelled();
+		} catch (InterruptedException e) {
+			cancelled();
+		} catch (ExecutionException e) {
+			failed(e.getCause());
+		}
+	}
+
+	/**
+	 * The file has been loaded.
+	 */
+	public abstract void loaded();
+
+	/**
+	 * Loading was cancelled by the user.
+	 */
+	public abstract void cancelled();
+
+	/**
+	 * The file could not be loaded.
+	 *
+	 * @param e cause.
+	 */
+	public abstract void failed(Throwable e);
+
+	/** Size of the first chunk passed to the editor */
+	private static final int FIRST_CHUNK = 8 * 1024;
+	/** Size of the other chunks */
+	private static final int CHUNK = 256 * 1024;
+
+	private final File file;
+	private final Editor editor;
+	private final boolean large;
+
+	/** Line ends "\r\n" and "\r" have been read */
+	private volatile boolean crlf = false;
+	private volatile boolean lonelyCr = false;
+}
@@ -0,0 +1,165 @@
+package game.weekend.texteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Files of a directory tree, or files of a list, processed by a pool of
+ * threads.
+ * <p>
+ * There are as many threads as there are processors. No more than two files per
+ * thread wait for their turn, so the walk over the tree does not run far ahead
+ * of the threads, however many files there are.
+ */
+public class FilePool {
+
+	/**
+	 * Take the files of a directory and its subdirectories.
+	 *
+	 * @param dir  directory.
+	 * @param mask mask of the names of the files, such as *.txt, or an empty
+	 *             string for all files.
+	 * @throws IllegalArgumentException if the mask is incorrect.
+	 */
+	public FilePool(File dir, String mask) {
+		this.dir = dir.toPath();
+		this.names = mask.isBlank() ? null : FileSystems.getDefault().getPathMatcher("glob:" + mask.trim());
+		this.files = null;
+	}
+
+	/**
+	 * Take the files of a list.
+	 *
+	 * @param dir   directory the names of the files are shown relative to.
+	 * @param files files.
+	 */
+	public FilePool(File dir, List<File> files) {
+		this.dir = dir.toPath();
+		this.names = null;
+		this.files = files;
+	}
+
+	/**
+	 * Get the name of the file relative to the directory.
+	 *
+	 * @param path file.
+	 * @return name to show.
+	 */
+	public String getName(Path path) {
+		return path.startsWith(dir) ? dir.relativize(path).toString() : path.toString();
+	}
+
+	/**
+	 * Process the files. Returns when all of them have been processed.
+	 *
+	 * @param stopped tells when to stop taking the files.
+	 * @param action  what to do with a file, called by the threads of the pool.
+	 * @throws IOException          if the directory cannot be read.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public void run(BooleanSupplier stopped, Consumer<Path> action) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		Semaphore queue = new Semaphore(THREADS * 2);
+		try {
+			if (files != null) {
+				for (File file : files) {
+					if (stopped.getAsBoolean())
+						break;
+					submit(pool, queue, file.toPath(), action);
+				}
+			} else {
+				Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+						if (stopped.getAsBoolean())
+							return FileVisitResult.TERMINATE;
+						if (!attrs.isRegularFile() || attrs.size() == 0)
+							return FileVisitResult.CONTINUE;
+						if (names != null && !names.matches(path.getFileName()))
+							return FileVisitResult.CONTINUE;
+
+						try {
+							submit(pool, queue, path, action);
+						} catch (InterruptedException e) {
+							// The interruption is noticed when waiting for the pool
+							Thread.currentThread().interrupt();
+							return FileVisitResult.TERMINATE;
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path path, IOException e) {
+						// A file that cannot be read is not a reason to stop
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+		}
+		// The last files are still being processed
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Give the file to the pool when there is room in the queue.
+	 */
+	private static void submit(ExecutorService pool, Semaphore queue, Path path, Consumer<Path> action)
+			throws InterruptedException {
+		queue.acquire();
+		pool.execute(() -> {
+			try {
+				action.accept(path);
+			} finally {
+				queue.release();
+			}
+		});
+	}
+
+	/**
+	 * Is the file binary? There are no zero bytes at the beginning of a text file.
+	 *
+	 * @param path file.
+	 * @return true/false.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static boolean isBinary(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer bytes = ByteBuffer.allocate(PROBE);
+			while (bytes.hasRemaining() && channel.read(bytes) > 0)
+				;
+			bytes.flip();
+			while (bytes.hasRemaining())
+				if (bytes.get() == 0)
+					return true;
+			return false;
+		}
+	}
+
+	/** Number of threads processing the files */
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	/** How many bytes at the beginning of a file are looked at for zeros */
+	private static final int PROBE = 8 * 1024;
+
+	private final Path dir;
+	private final PathMatcher names;
+	private final List<File> files;
+}
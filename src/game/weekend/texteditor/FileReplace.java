@@ -0,0 +1,294 @@
+package game.weekend.texteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Replace a substring or a regular expression in files, in the background.
+ * <p>
+ * The files are processed by a pool of threads. First the replacements are
+ * only counted, so that the user can see what is going to change. Then each
+ * file is read and streamed through the replacement into a temporary file next
+ * to it, which takes the place of the file when it is written. A file is either
+ * replaced as a whole or stays as it was.
+ * <p>
+ * The file is read through its channel, not mapped into memory: on Windows a
+ * mapped file cannot be replaced as long as the mapping is alive, and it lives
+ * until the garbage collector finds it. So a file longer than MAX_SIZE is not
+ * replaced.
+ * <p>
+ * A file with incorrect UTF-8 sequences is not replaced: the sequences would be
+ * lost. What to do with the results is defined by the creator of the object.
+ */
+public abstract class FileReplace extends SwingWorker<Void, FileReplace.Change> {
+
+	/**
+	 * Prepare the replacement.
+	 *
+	 * @param files         files.
+	 * @param pattern       substring or regular expression.
+	 * @param caseSensitive is the case of the letters significant.
+	 * @param regex         is the pattern a regular expression.
+	 * @param replacement   replacement.
+	 * @param commit        true - replace, false - only count the replacements.
+	 * @throws java.util.regex.PatternSyntaxException if the regular expression is
+	 *                                                incorrect.
+	 */
+	public FileReplace(FilePool files, String pattern, boolean caseSensitive, boolean regex, String replacement,
+			boolean commit) {
+		this.files = files;
+		this.pattern = pattern;
+		this.caseSensitive = caseSensitive;
+		this.regex = regex;
+		this.replacement = replacement;
+		this.commit = commit;
+
+		// An incorrect expression is reported at once, not by every file
+		SearchEngine.create(pattern, caseSensitive, regex, false);
+	}
+
+	/**
+	 * Start the work.
+	 */
+	public void start() {
+		execute();
+	}
+
+	/**
+	 * Stop the work. The files being written are finished, the rest are not
+	 * touched.
+	 */
+	public void stop() {
+		cancel(true);
+	}
+
+	/**
+	 * Get the number of files processed so far.
+	 *
+	 * @return number of files.
+	 */
+	public int getFilesProcessed() {
+		return processed.get();
+	}
+
+	/**
+	 * Are the files being replaced, or are the replacements only counted?
+	 *
+	 * @return true - the files are replaced.
+	 */
+	public boolean isCommit() {
+		return commit;
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		files.run(() -> isCancelled(), path -> replace(path));
+		return null;
+	}
+
+	/**
+	 * Process one file. Called by the threads of the pool.
+	 */
+	private void replace(Path path) {
+		if (isCancelled())
+			return;
+		File file = path.toFile();
+		String name = files.getName(path);
+		try {
+			if (FilePool.isBinary(path))
+				return;
+
+			TextSnapshot text;
+			try {
+				text = read(path, CodingErrorAction.REPORT);
+			} catch (CharacterCodingException e) {
+				int n = replaceAll(read(path, CodingErrorAction.REPLACE), null);
+				if (n > 0)
+					publish(new Change(file, name, n, Loc.get("invalid_utf8")));
+				return;
+			}
+
+			int[] n = new int[1];
+			if (commit)
+				Saver.save(file, out -> n[0] = replaceAll(text, out));
+			else
+				n[0] = replaceAll(text, null);
+			if (n[0] > 0)
+				publish(new Change(file, name, n[0], null));
+
+		} catch (Saver.NotReplaced e) {
+			publish(new Change(file, name, 0, e.getMessage()));
+		} catch (IOException e) {
+			publish(new Change(file, name, 0, e.toString()));
+		} catch (RegexSearch.Timeout e) {
+			publish(new Change(file, name, 0, Loc.get("the_search_took_too_long")));
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			publish(new Change(file, name, 0, Loc.get("invalid_replacement") + ": " + replacement));
+		} finally {
+			processed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Read the text of the file.
+	 *
+	 * @param path      file.
+	 * @param malformed what to do with incorrect UTF-8 sequences: report them or
+	 *                  replace them with U+FFFD.
+	 * @return text of the file.
+	 * @throws CharacterCodingException if there are incorrect sequences and they
+	 *                                  are reported.
+	 * @throws IOException              if the file cannot be read or is too large.
+	 */
+	private static TextSnapshot read(Path path, CodingErrorAction malformed) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > MAX_SIZE)
+				throw new IOException(Loc.get("the_file_is_too_large"));
+
+			CharsetDecoder decoder = Filer.CHARSET.newDecoder().onMalformedInput(malformed)
+					.onUnmappableCharacter(malformed);
+			Reader in = Channels.newReader(channel, decoder, BUFFER);
+			// UTF-8 has no more characters than bytes
+			char[] chars = new char[(int) size];
+			int n = 0;
+			int k;
+			while (n < chars.length && (k = in.read(chars, n, chars.length - n)) > 0)
+				n += k;
+			return ArraySnapshot.of(chars, n);
+		}
+	}
+
+	/**
+	 * Write the text with the replacements, or only count them.
+	 */
+	private int replaceAll(TextSnapshot text, Writer out) throws IOException {
+		// The search remembers its place, so every file has its own
+		return Replacer.replaceAll(text, SearchEngine.create(pattern, caseSensitive, regex, false), replacement, out);
+	}
+
+	@Override
+	protected void process(List<Change> portion) {
+		// Results may still arrive after the work has been stopped
+		if (!isCancelled())
+			changed(portion);
+	}
+
+	@Override
+	protected void done() {
+		try {
+			get();
+			finished();
+		} catch (CancellationException e) {
+			finished();
+		} catch (InterruptedException e) {
+			finished();
+		} catch (ExecutionException e) {
+			failed(e.getCause());
+		}
+	}
+
+	/**
+	 * Files have been processed. Called on the Event Dispatch Thread.
+	 *
+	 * @param changes the files with replacements, or the files that could not be
+	 *                processed.
+	 */
+	public abstract void changed(List<Change> changes);
+
+	/**
+	 * The work is over or has been stopped.
+	 */
+	public abstract void finished();
+
+	/**
+	 * The files could not be processed.
+	 *
+	 * @param e cause.
+	 */
+	public abstract void failed(Throwable e);
+
+	/**
+	 * Replacements in a file.
+	 */
+	public static class Change {
+
+		Change(File file, String name, int count, String error) {
+			this.file = file;
+			this.name = name;
+			this.count = count;
+			this.error = error;
+		}
+
+		/**
+		 * Get the file.
+		 *
+		 * @return file.
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Get the number of replacements.
+		 *
+		 * @return number of replacements.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Get the reason why the file is not replaced.
+		 *
+		 * @return reason, or null if the file is replaced.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * The change as it is shown: the name of the file relative to the directory
+		 * and the number of replacements or the reason why there are none.
+		 */
+		@Override
+		public String toString() {
+			return name + ": " + ((error == null) ? String.format("%,d", count) : error);
+		}
+
+		private final File file;
+		private final String name;
+		private final int count;
+		private final String error;
+	}
+
+	/** The longest file that is replaced, it is read into memory */
+	private static final long MAX_SIZE = 128L * 1024 * 1024;
+	/** Size of the buffer of the bytes read */
+	private static final int BUFFER = 64 * 1024;
+
+	private final FilePool files;
+	private final String pattern;
+	private final boolean caseSensitive;
+	private final boolean regex;
+	private final String replacement;
+	private final boolean commit;
+
+	/** Files processed */
+	private final AtomicInteger processed = new AtomicInteger();
+}
@@ -0,0 +1,259 @@
+package game.weekend.texteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Search for a substring or a regular expression in the files of a directory
+ * tree, in the background.
+ * <p>
+ * The tree is walked by the worker thread, and the files are searched by a pool
+ * of threads. A file is not read into the heap, but mapped into memory, the
+ * same as a large file opened in the editor. A file with a zero byte at its
+ * beginning is taken for a binary one and is skipped.
+ * <p>
+ * The matches are passed to the creator of the object in portions while the
+ * search goes on. What to do with them and when the search ends is defined by
+ * the creator of the object.
+ */
+public abstract class FileSearch extends SwingWorker<Void, FileSearch.Hit> {
+
+	/**
+	 * Prepare the search.
+	 *
+	 * @param dir           directory to search in, with its subdirectories.
+	 * @param mask          mask of the names of the files, such as *.txt, or an
+	 *                      empty string for all files.
+	 * @param pattern       substring or regular expression.
+	 * @param caseSensitive is the case of the letters significant.
+	 * @param regex         is the pattern a regular expression.
+	 * @throws java.util.regex.PatternSyntaxException if the regular expression is
+	 *                                                incorrect.
+	 * @throws IllegalArgumentException               if the mask is incorrect.
+	 */
+	public FileSearch(File dir, String mask, String pattern, boolean caseSensitive, boolean regex) {
+		this.files = new FilePool(dir, mask);
+		this.pattern = pattern;
+		this.caseSensitive = caseSensitive;
+		this.regex = regex;
+
+		// An incorrect expression is reported at once, not by every file
+		SearchEngine.create(pattern, caseSensitive, regex, false);
+	}
+
+	/**
+	 * Start the search.
+	 */
+	public void start() {
+		execute();
+	}
+
+	/**
+	 * Stop the search. The matches found so far stay.
+	 */
+	public void stop() {
+		cancel(true);
+	}
+
+	/**
+	 * Get the number of files searched so far.
+	 *
+	 * @return number of files.
+	 */
+	public int getFilesSearched() {
+		return searched.get();
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		files.run(() -> isCancelled() || hits.get() >= MAX_HITS, path -> search(path));
+		return null;
+	}
+
+	/**
+	 * Search one file. Called by the threads of the pool.
+	 */
+	private void search(Path path) {
+		if (isCancelled())
+			return;
+		try {
+			if (FilePool.isBinary(path))
+				return;
+
+			MappedText text = MappedText.map(path.toFile());
+			DocumentChars chars = new DocumentChars(text, 0, text.length());
+			String name = files.getName(path);
+
+			// The search remembers its place, so every file has its own
+			SearchEngine search = SearchEngine.create(pattern, caseSensitive, regex, false);
+			for (int i = search.indexOf(chars, 0); i >= 0 && !isCancelled(); i = search.findNext()) {
+				if (!report(path, name, text, chars, i, search.end() - i))
+					break;
+			}
+		} catch (IOException | RegexSearch.Timeout e) {
+			// The file is too large or cannot be read, or the expression is too slow
+			// for it, the other files are searched all the same
+		} finally {
+			searched.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Pass on a match.
+	 *
+	 * @return false if there are too many matches already.
+	 */
+	private boolean report(Path path, String name, MappedText text, CharSequence chars, int offset, int length) {
+		if (hits.incrementAndGet() > MAX_HITS)
+			return false;
+
+		LineIndex lines = text.getLineIndex();
+		int line = lines.getLineOfOffset(offset);
+		int start = lines.getLineStart(line);
+
+		// The line is shown from its beginning, a long one not in full
+		StringBuilder sb = new StringBuilder();
+		for (int i = start; i < chars.length() && i < start + PREVIEW; ++i) {
+			char c = chars.charAt(i);
+			if (c == '\n' || c == '\r')
+				break;
+			sb.append(c);
+		}
+
+		publish(new Hit(path.toFile(), name, line, offset - start, length, sb.toString()));
+		return true;
+	}
+
+	@Override
+	protected void process(List<Hit> portion) {
+		// Matches may still arrive after the search has been stopped
+		if (!isCancelled())
+			found(portion);
+	}
+
+	@Override
+	protected void done() {
+		try {
+			get();
+			finished(hits.get() >= MAX_HITS);
+		} catch (CancellationException e) {
+			finished(false);
+		} catch (InterruptedException e) {
+			finished(false);
+		} catch (ExecutionException e) {
+			failed(e.getCause());
+		}
+	}
+
+	/**
+	 * Matches have been found. Called on the Event Dispatch Thread.
+	 *
+	 * @param hits matches in the order they were found.
+	 */
+	public abstract void found(List<Hit> hits);
+
+	/**
+	 * The search is over or has been stopped.
+	 *
+	 * @param truncated true - MAX_HITS matches have been found, and the rest
+	 *                  of them have not been searched for.
+	 */
+	public abstract void finished(boolean truncated);
+
+	/**
+	 * The directory could not be searched.
+	 *
+	 * @param e cause.
+	 */
+	public abstract void failed(Throwable e);
+
+	/**
+	 * A match found in a file.
+	 */
+	public static class Hit {
+
+		Hit(File file, String name, int line, int column, int length, String text) {
+			this.file = file;
+			this.name = name;
+			this.line = line;
+			this.column = column;
+			this.length = length;
+			this.text = text;
+		}
+
+		/**
+		 * Get the file.
+		 *
+		 * @return file.
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Get the line of the match.
+		 *
+		 * @return line number, from 0.
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * Get the column of the match.
+		 *
+		 * @return column number, from 0.
+		 */
+		public int getColumn() {
+			return column;
+		}
+
+		/**
+		 * Get the length of the match.
+		 *
+		 * @return number of characters.
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * The match as it is shown in the list: the name of the file relative to the
+		 * directory, the line and the column counted from 1, and the line itself.
+		 */
+		@Override
+		public String toString() {
+			return name + ":" + (line + 1) + ":" + (column + 1) + ": " + text;
+		}
+
+		private final File file;
+		private final String name;
+		private final int line;
+		private final int column;
+		private final int length;
+		private final String text;
+	}
+
+	/** The most matches that are searched for */
+	public static final int MAX_HITS = 100_000;
+
+	/** How many characters of the line are shown */
+	private static final int PREVIEW = 200;
+
+	private final FilePool files;
+	private final String pattern;
+	private final boolean caseSensitive;
+	private final boolean regex;
+
+	/** Files searched */
+	private final AtomicInteger searched = new AtomicInteger();
+	/** Matches found */
+	private final AtomicInteger hits = new AtomicInteger();
+}
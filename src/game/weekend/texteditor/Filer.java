@@ -2,15 +2,14 @@ package game.weekend.texteditor;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
-import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileFilter;
+import javax.swing.text.Document;
 
 /**
  * Working with files.
@@ -45,6 +44,15 @@ public class Filer {
 		this.act = act;
 	}
 
+	/**
+	 * Get the file shown in the editor.
+	 * 
+	 * @return file, or null if the text is not in a file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
 	/**
 	 * "New"
 	 */
@@ -52,6 +60,8 @@ public class Filer {
 		if (!saveFileIfNecessary())
 			return;
 
+		stopLoading();
+
 		app.getFrame().setTitle(WeekendTextEditor.APP_NAME);
 
 		file = null;
@@ -107,12 +117,44 @@ public class Filer {
 		open(file);
 	}
 
+	/**
+	 * Open file by name and go to the line and column. If the file is already
+	 * open, it is not read again.
+	 * 
+	 * @param file   file to open.
+	 * @param line   line number, from 0.
+	 * @param column column number, from 0.
+	 */
+	public void openFileByName(File file, int line, int column) {
+		if (this.file != null && loader == null && this.file.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+			editor.goTo(line, column);
+			return;
+		}
+
+		if (!saveFileIfNecessary())
+			return;
+
+		open(file, line, column);
+	}
+
 	/**
 	 * Open the specified file and display it.
 	 * 
 	 * @param file file to open
 	 */
 	public void open(File file) {
+		open(file, -1, 0);
+	}
+
+	/**
+	 * Open the specified file, display it and go to the line and column when it is
+	 * loaded.
+	 * 
+	 * @param file   file to open.
+	 * @param line   line number, from 0, or -1 to stay at the beginning.
+	 * @param column column number, from 0.
+	 */
+	private void open(File file, int line, int column) {
 		if (file == null)
 			return;
 
@@ -125,29 +167,73 @@ public class Filer {
 			Mes.err(Loc.get("file") + " " + file.getPath() + " " + Loc.get("not_found") + ".");
 
 		} else {
-			try {
-				String content = Files.readString(file.toPath(), CHARSET);
-				this.file = file;
+			// Loading of the previous file is no longer needed
+			stopLoading();
 
-				// I'm passing on what I've read to the editor.
-				editor.setText(content);
+			boolean large = file.length() >= getLargeFileSize();
+			this.file = file;
 
-				// Display the name of the open file in the application title
-				app.getFrame().setTitle(WeekendTextEditor.APP_NAME + " - " + file.getPath());
+			// An ordinary file is passed on to the editor in chunks as it is read. A large
+			// file is not read, but mapped into memory, and is passed on as a whole.
+			if (!large)
+				editor.setText("");
 
-				// I remember it in the list of recently opened files
-				lastFiles.put(file.getPath());
+			// Display the name of the open file in the application title
+			app.getFrame().setTitle(WeekendTextEditor.APP_NAME + " - " + file.getPath());
 
-			} catch (IOException e) {
-				Mes.err(Loc.get("failed_to_open_file") + " " + file.getPath() + ".\n" + e);
-			}
+			loader = new FileLoader(file, editor, large) {
+				@Override
+				public void loaded() {
+					if (loader != this)
+						return;
+					loader = null;
+
+					// I remember it in the list of recently opened files
+					lastFiles.put(file.getPath());
+					act.refreshMenuFile();
+
+					if (line >= 0)
+						editor.goTo(line, column);
+
+					if (editor.isReadOnly())
+						Mes.err(Loc.get("file") + " " + file.getPath() + " " + Loc.get("opened_read_only") + ".");
+
+					index();
+				}
+
+				@Override
+				public void cancelled() {
+					if (loader != this)
+						return;
+					loader = null;
+
+					// What has been loaded stays, but it is not the file anymore
+					Filer.this.file = null;
+					app.getFrame().setTitle(WeekendTextEditor.APP_NAME);
+					WeekendTextEditor.status.showMessage(Loc.get("loading_cancelled"));
+				}
+
+				@Override
+				public void failed(Throwable e) {
+					if (loader != this)
+						return;
+					loader = null;
+
+					Filer.this.file = null;
+					app.getFrame().setTitle(WeekendTextEditor.APP_NAME);
+					editor.setText("");
+					Mes.err(Loc.get("failed_to_open_file") + " " + file.getPath() + ".\n" + e);
+				}
+			};
+			loader.start();
 		}
 
 		act.refreshMenuFile();
 	}
 
 	/**
-	 * Save text to the specified file.
+	 * Save text to the specified file. The text is written in the background, the
+	 * title and the change flag are updated when writing is over.
 	 * 
 	 * @param file file to save text
 	 */
@@ -155,33 +241,207 @@ public class Filer {
 		if (file == null)
 			return;
 
-		try {
-			CharsetEncoder encoder = CHARSET.newEncoder();
-			ByteBuffer output = encoder.encode(CharBuffer.wrap(editor.getPane().getText()));
-			byte[] bytes = new byte[output.remaining()];
-			output.get(bytes);
+		// Only part of the file is in the editor yet
+		if (loader != null) {
+			WeekendTextEditor.status.showMessage(Loc.get("wait_until_the_file_is_loaded"));
+			return;
+		}
+
+		// The previous save has not finished yet
+		if (saving != null) {
+			WeekendTextEditor.status.showMessage(Loc.get("wait_until_the_file_is_saved"));
+			return;
+		}
+
+		// The incorrect bytes of the file would be replaced by U+FFFD
+		if (editor.isReadOnly()) {
+			Mes.err(Loc.get("cannot_save_read_only") + " " + file.getPath() + ".");
+			return;
+		}
+
+		// The text typed while this version is written begins a new step, so undo can
+		// return to the saved text
+		editor.endStep();
+		saving = new SaveTask(file, editor.getSnapshot(), editor.getLineSeparator(), editor.getVersion());
+		WeekendTextEditor.status.showMessage(Loc.get("saving") + " " + file.getPath());
+		saving.execute();
+	}
 
-			Files.write(file.toPath(), bytes);
+	/**
+	 * Wait until the file being saved is written.
+	 */
+	private void awaitSaving() {
+		if (saving != null)
+			saving.finish();
+	}
+
+	/**
+	 * Writing a snapshot of the text to a file in the background.
+	 */
+	private class SaveTask extends SwingWorker<Void, Void> {
 
+		SaveTask(File file, TextSnapshot text, String separator, long version) {
 			this.file = file;
-			editor.setChanged(false);
+			this.text = text;
+			this.separator = separator;
+			this.version = version;
+		}
 
-			// Display file name in application title
-			app.getFrame().setTitle(WeekendTextEditor.APP_NAME + " - " + file.getPath());
+		@Override
+		protected Void doInBackground() throws IOException {
+			Saver.save(text, separator, file);
+			return null;
+		}
+
+		@Override
+		protected void done() {
+			finish();
+		}
+
+		/**
+		 * Wait for the end of writing and show its result. Only the first call does
+		 * anything.
+		 */
+		void finish() {
+			if (saving != this)
+				return;
+			saving = null;
+
+			try {
+				get();
+
+				Filer.this.file = file;
+
+				// The text typed while it was being written has not been saved, it is still
+				// changed
+				editor.setSaved(version);
+
+				// Display file name in application title
+				app.getFrame().setTitle(WeekendTextEditor.APP_NAME + " - " + file.getPath());
+
+				// I remember it in the list of recently opened files
+				lastFiles.put(file.getPath());
+
+				act.refreshMenuFile();
+
+				WeekendTextEditor.status.showMessage(Loc.get("saved_to_file") + " " + file.getPath());
+
+			} catch (ExecutionException e) {
+				// When the file is in use, the message tells where the text has been written
+				Throwable cause = e.getCause();
+				String reason = (cause instanceof Saver.NotReplaced) ? cause.getMessage() : cause.toString();
+				Mes.err(Loc.get("failed_to_save_file") + " " + file.getPath() + ".\n" + reason);
+			} catch (InterruptedException e) {
+				Mes.err(Loc.get("failed_to_save_file") + " " + file.getPath() + ".\n" + e);
+			}
+		}
+
+		private final File file;
+		private final TextSnapshot text;
+		private final String separator;
+		private final long version;
+	}
+
+	/**
+	 * Cancel loading of a file if it is in progress.
+	 */
+	private void stopLoading() {
+		if (loader != null) {
+			FileLoader l = loader;
+			loader = null;
+			l.stop();
+		}
+		indexing = null;
+	}
+
+	/**
+	 * Turn the index of large files on or off. The index of the file open now is
+	 * built at once.
+	 * 
+	 * @param on true - index large files.
+	 */
+	public void setIndexing(boolean on) {
+		Proper.setProperty("IndexLargeFiles", on ? "TRUE" : "FALSE");
+		if (on && loader == null)
+			index();
+	}
+
+	/**
+	 * Build the index of the large file that has been opened, or read the index
+	 * kept next to the file, so that the repeated searches do not read the whole
+	 * file.
+	 */
+	private void index() {
+		if (!Proper.getProperty("IndexLargeFiles", "FALSE").equalsIgnoreCase("TRUE") || file == null)
+			return;
+		Document doc = editor.getPane().getDocument();
+		if (!(doc instanceof LargeDocument) || doc.getProperty(TrigramIndex.class) != null)
+			return;
+		LargeDocument large = (LargeDocument) doc;
+		if (!large.isOriginal())
+			return;
+
+		indexing = new IndexTask(file, large);
+		WeekendTextEditor.status.showMessage(Loc.get("indexing") + " " + file.getPath());
+		indexing.execute();
+	}
+
+	/**
+	 * Building the index of a large file in the background.
+	 */
+	private class IndexTask extends SwingWorker<TrigramIndex, Void> {
 
-			// I remember it in the list of recently opened files
-			lastFiles.put(file.getPath());
+		IndexTask(File file, LargeDocument doc) {
+			this.file = file;
+			this.doc = doc;
+			this.text = doc.getSnapshot();
+		}
 
-			act.refreshMenuFile();
+		@Override
+		protected TrigramIndex doInBackground() {
+			TrigramIndex index = TrigramIndex.load(file, text);
+			if (index == null) {
+				index = new TrigramIndex(text);
+				if (Proper.getProperty("IndexCache", "TRUE").equalsIgnoreCase("TRUE"))
+					index.save(file);
+			}
+			return index;
+		}
 
-			WeekendTextEditor.status.showMessage(Loc.get("saved_to_file") + " " + file.getPath());
+		@Override
+		protected void done() {
+			if (indexing != this)
+				return;
+			indexing = null;
 
-		} catch (IOException e) {
-			Mes.err(Loc.get("failed_to_save_file") + " " + file.getPath() + ".\n" + e);
+			try {
+				doc.putProperty(TrigramIndex.class, get());
+				WeekendTextEditor.status.showMessage(Loc.get("index_built") + " " + file.getPath());
+			} catch (ExecutionException e) {
+				WeekendTextEditor.status.showMessage(Loc.get("failed_to_index") + " " + file.getPath());
+			} catch (InterruptedException e) {
+				WeekendTextEditor.status.showMessage(Loc.get("failed_to_index") + " " + file.getPath());
+			}
 		}
+
+		private final File file;
+		private final LargeDocument doc;
+		private final TextSnapshot text;
+	}
+
+	/**
+	 * Get the size from which files are opened by memory mapping.
+	 * 
+	 * @return file size in bytes.
+	 */
+	private long getLargeFileSize() {
+		return Proper.getProperty("LargeFileSize", 32) * 1024L * 1024L;
 	}
 
 	public boolean saveFileIfNecessary() {
+		// The text being saved is still considered changed
+		awaitSaving();
+
 		if (!editor.isChanged())
 			return true;
 
@@ -189,6 +449,7 @@ public class Filer {
 				.conf(Loc.get("the_text_has_been_changed") + ". " + Loc.get("do_you_want_to_save_the_changes") + "?");
 		if (retVal == JOptionPane.YES_OPTION) {
 			saveFile();
+			awaitSaving();
 			return !editor.isChanged();
 		}
 		if (retVal == JOptionPane.NO_OPTION) {
@@ -303,6 +564,9 @@ public class Filer {
 	}
 
 	private File file = null;
+	private FileLoader loader = null;
+	private SaveTask saving = null;
+	private IndexTask indexing = null;
 
 	private WeekendTextEditor app;
 	private Editor editor;
@@ -1,12 +1,8 @@
 package game.weekend.texteditor;
 
-import java.awt.Rectangle;
-import java.awt.geom.Rectangle2D;
-
 import javax.swing.JEditorPane;
 import javax.swing.JFrame;
 import javax.swing.text.BadLocationException;
-import javax.swing.text.Document;
 
 /**
  * Search for text displayed in a JEditorPane.
@@ -26,13 +22,29 @@ public class Finder {
 		this.laf = laf;
 		this.pattern = Proper.getProperty("Pattern", "");
 		this.caseSensitive = Proper.getProperty("CaseSensitive", "FALSE").equalsIgnoreCase("TRUE") ? true : false;
+		this.regex = Proper.getProperty("RegularExpression", "FALSE").equalsIgnoreCase("TRUE");
+		this.wholeWord = Proper.getProperty("WholeWord", "FALSE").equalsIgnoreCase("TRUE");
+		this.fuzzy = Proper.getProperty("Fuzzy", "FALSE").equalsIgnoreCase("TRUE");
+		this.edits = Proper.getProperty("FuzzyEdits", 1);
+		this.highlightAll = Proper.getProperty("HighlightAll", "FALSE").equalsIgnoreCase("TRUE");
+		this.search = new PaneSearch(pane);
+		search.setPattern(pattern, caseSensitive, regex, wholeWord, allowedEdits());
+		this.tracker = new MatchTracker(pane, new Runnable() {
+			@Override
+			public void run() {
+				WeekendTextEditor.status.showText3(tracker.getCounter());
+				// The matches typing has been waiting for are found
+				if (jump && tracker.getMatches() != null)
+					jumpToMatch();
+			}
+		});
 	}
 
 	/**
 	 * Reset the search start position to its original state.
 	 */
 	public void resetPosition() {
-		position = -1;
+		search.resetPosition();
 	}
 
 	/**
@@ -46,17 +58,21 @@ public class Finder {
 				{
 					setPattern(pattern);
 					setCase(caseSensitive);
+					setRegex(regex);
+					setWholeWord(wholeWord);
+					setFuzzy(fuzzy);
+					setEdits(edits);
+					setHighlightAll(highlightAll);
 					setFindDown(true);
 					laf.addUpdateComponent(this);
 				}
 
 				@Override
 				public void find() {
-					pattern = getPattern();
-					Proper.setProperty("Pattern", pattern);
+					takeAttributes();
 
-					caseSensitive = getCase();
-					Proper.setProperty("CaseSensitive", caseSensitive ? "TRUE" : "FALSE");
+					// The next typing searches from the found place
+					anchor = -1;
 
 					findDown = getFindDown();
 
@@ -69,106 +85,137 @@ public class Finder {
 					whatFocus();
 				}
 
+				@Override
+				public void findIncrementally() {
+					takeAttributes();
+					Finder.this.findIncrementally();
+				}
+
+				/**
+				 * Take the search attributes from the frame and remember them.
+				 */
+				private void takeAttributes() {
+					pattern = getPattern();
+					Proper.setProperty("Pattern", pattern);
+
+					caseSensitive = getCase();
+					Proper.setProperty("CaseSensitive", caseSensitive ? "TRUE" : "FALSE");
+
+					regex = getRegex();
+					Proper.setProperty("RegularExpression", regex ? "TRUE" : "FALSE");
+
+					wholeWord = getWholeWord();
+					Proper.setProperty("WholeWord", wholeWord ? "TRUE" : "FALSE");
+
+					fuzzy = getFuzzy();
+					Proper.setProperty("Fuzzy", fuzzy ? "TRUE" : "FALSE");
+					edits = getEdits();
+					Proper.setProperty("FuzzyEdits", edits);
+
+					search.setPattern(pattern, caseSensitive, regex, wholeWord, allowedEdits());
+
+					highlightAll = getHighlightAll();
+					Proper.setProperty("HighlightAll", highlightAll ? "TRUE" : "FALSE");
+					tracker.setHighlighted(highlightAll);
+					tracker.track(pattern, caseSensitive, regex, wholeWord, allowedEdits());
+				}
+
 				@Override
 				public void close() {
 					super.close();
+					tracker.clear();
 					laf.removeUpdateComponent(finderFrame);
 					finderFrame = null;
 				}
 			};
 		}
+		anchor = -1;
 		finderFrame.setVisible(true);
 	}
 
+	/**
+	 * Get the number of edits a match may have.
+	 * 
+	 * @return number of edits, 0 for an exact search.
+	 */
+	private int allowedEdits() {
+		return (fuzzy && !regex) ? edits : 0;
+	}
+
 	/**
 	 * Search current line forward.
 	 */
 	public void findForward() {
-		try {
-			String content = getContent();
-			String pattern = getPattern();
-			if (pattern.trim().length() > 0) {
-
-				int carretPos = pane.getCaret().getMark();
-				if (position == carretPos)
-					++position;
-				else
-					position = carretPos;
-
-				int i = content.indexOf(pattern, position);
-				showResult(i);
-			}
-		} catch (BadLocationException ignored) {
-		}
+		search.findForward();
 	}
 
 	/**
 	 * Search backwards for the current line.
 	 */
 	public void findBack() {
-		try {
-			String content = getContent();
-			String pattern = getPattern();
-			if (pattern.trim().length() > 0) {
-
-				position = pane.getCaret().getDot();
-				if (position != pane.getCaret().getMark())
-					--position;
-
-				int i = content.substring(0, position).lastIndexOf(pattern, position);
-				showResult(i);
-			}
-		} catch (BadLocationException ignored) {
-		}
+		search.findBack();
 	}
 
 	/**
-	 * Get the string to search for.
-	 * 
-	 * @return search string.
+	 * Search forward from the place where typing began, while the pattern is being
+	 * typed.
+	 * <p>
+	 * Only a part of the text (WINDOW) is searched at once, so that the caret moves
+	 * without a delay. If there is no match there, the caret moves when the
+	 * background search of all the matches ends (see tracker), to the first match
+	 * after the place or, if there is none, to the first match of the text.
 	 */
-	private String getPattern() {
-		if (!caseSensitive) {
-			return pattern.toUpperCase();
-		} else {
-			return pattern;
+	private void findIncrementally() {
+		if (anchor < 0)
+			anchor = pane.getSelectionStart();
+		jump = false;
+		if (pattern.isEmpty()) {
+			pane.setCaretPosition(Math.min(anchor, pane.getDocument().getLength()));
+			return;
 		}
-	}
 
-	/**
-	 * Get the text displayed in the JEditorPane.
-	 * 
-	 * @return text displayed in JEditorPane.
-	 * @throws BadLocationException inherited exception.
-	 */
-	private String getContent() throws BadLocationException {
-		Document d = pane.getDocument();
-		String s = d.getText(0, d.getLength());
-		if (!caseSensitive) {
-			s = s.toUpperCase();
+		try {
+			int length = pane.getDocument().getLength();
+			int to = Math.min(anchor + WINDOW, length);
+			SearchEngine s = search.getSearch();
+			if (s == null)
+				return;
+			// A match touching the end of the part may be cut by it
+			int i = s.find(search.getContent(), anchor, to);
+			if (i >= 0 && (s.end() < to || to == length)) {
+				search.showResult(i, s.end());
+				return;
+			}
+		} catch (BadLocationException ignored) {
+		} catch (RegexSearch.Timeout e) {
+			WeekendTextEditor.status.showMessage(Loc.get("the_search_took_too_long"));
+			return;
 		}
-		return s;
+
+		jump = true;
+		if (tracker.getMatches() != null)
+			jumpToMatch();
 	}
 
 	/**
-	 * Select the found string in JEditorPane.
-	 * 
-	 * @param i the position at which the found string begins.
-	 * @throws BadLocationException inherited exception.
+	 * Select the first of all the matches after the place where typing began.
 	 */
-	private void showResult(int i) throws BadLocationException {
-		if (i >= 0) {
-			position = i;
-			WeekendTextEditor.status.showMessage("");
-
-			Rectangle2D rect2D = pane.modelToView2D(position);
-			Rectangle rect = new Rectangle((int) rect2D.getX(), (int) rect2D.getY(), (int) rect2D.getWidth(),
-					(int) rect2D.getHeight());
-			pane.scrollRectToVisible(rect);
-
-			pane.select(position, position + pattern.length());
-		} else
+	private void jumpToMatch() {
+		jump = false;
+		MatchList matches = tracker.getMatches();
+		if (matches.size() == 0) {
+			pane.setCaretPosition(Math.min(anchor, pane.getDocument().getLength()));
 			WeekendTextEditor.status.showMessage(Loc.get("unable_to_find") + " \"" + pattern + "\"");
+			return;
+		}
+
+		int i = matches.indexOf(anchor);
+		if (i == matches.size())
+			i = 0;
+		try {
+			search.showResult(matches.getStart(i), matches.getEnd(i));
+		} catch (BadLocationException ignored) {
+		}
 	}
 
 	private JFrame appFrame;
@@ -179,7 +226,20 @@ public class Finder {
 
 	private String pattern = "";
 	private boolean caseSensitive = false;
+	private boolean regex = false;
+	private boolean wholeWord = false;
+	private boolean fuzzy = false;
+	private int edits = 1;
+	private boolean highlightAll = false;
 	private boolean findDown = true;
 
-	private int position = -1;
+	/** How many characters are searched at once while the pattern is typed */
+	private static final int WINDOW = 1024 * 1024;
+	/** Where typing began, or -1 */
+	private int anchor = -1;
+	/** Is the caret waiting for the matches being searched in the background */
+	private boolean jump = false;
+
+	private PaneSearch search;
+	private MatchTracker tracker;
 }
@@ -20,8 +20,13 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * Frame for specifying the substring and search attributes.
@@ -38,7 +43,7 @@ public abstract class FinderFrame extends JDialog {
 		super(owner, Loc.get("find"), false);
 
 		// Default size and location
-		Proper.setBounds(this, 360, 180, 460, 135);
+		Proper.setBounds(this, 360, 180, 460, 160);
 
 		// Intercept Esc press to close frame
 		InputMap inputMap = getRootPane().getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
@@ -69,7 +74,41 @@ public abstract class FinderFrame extends JDialog {
 		JLabel lblWhat = new JLabel(Loc.get("what") + ":");
 		fldWhat = new JTextField(50);
 
+		// The search begins when typing pauses
+		typing = new Timer(DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent ae) {
+				findIncrementally();
+			}
+		});
+		typing.setRepeats(false);
+		fldWhat.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				typing.restart();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				typing.restart();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+
 		chkCase = new JCheckBox(Loc.get("case_sensitive"));
+		chkRegex = new JCheckBox(Loc.get("regular_expression"));
+		chkWord = new JCheckBox(Loc.get("whole_words"));
+
+		// A fuzzy match may differ from the pattern by a few edits
+		chkFuzzy = new JCheckBox(Loc.get("fuzzy_edits"));
+		spnEdits = new JSpinner(new SpinnerNumberModel(1, 1, MAX_EDITS, 1));
+		JPanel panFuzzy = new JPanel();
+		panFuzzy.setLayout(new FlowLayout(FlowLayout.LEFT, 0, 0));
+		panFuzzy.add(chkFuzzy);
+		panFuzzy.add(spnEdits);
+		chkHighlight = new JCheckBox(Loc.get("highlight_all"));
 
 		opbUp = new JRadioButton(Loc.get("back"));
 		opbDown = new JRadioButton(Loc.get("forward"));
@@ -113,6 +152,14 @@ public abstract class FinderFrame extends JDialog {
 		g.addFixL(chkCase, 4);
 		g.addFixL(panDir, 2);
 		g.addFixR(btnCancel, 1);
+
+		g.newLine();
+		g.addFixL(chkRegex, 4);
+		g.addFixL(chkHighlight, 2);
+
+		g.newLine();
+		g.addFixL(chkWord, 4);
+		g.addFixL(panFuzzy, 2);
 	}
 
 	/**
@@ -127,10 +174,16 @@ public abstract class FinderFrame extends JDialog {
 	 */
 	public abstract void find();
 
+	/**
+	 * Search while the pattern is being typed. Called when typing pauses.
+	 */
+	public abstract void findIncrementally();
+
 	/**
 	 * Close frame.
 	 */
 	public void close() {
+		typing.stop();
 		Proper.saveBounds(FinderFrame.this);
 		dispose();
 	}
@@ -151,6 +204,8 @@ public abstract class FinderFrame extends JDialog {
 	 */
 	public void setPattern(String pattern) {
 		fldWhat.setText(pattern);
+		// The given pattern has not been typed
+		typing.stop();
 	}
 
 	/**
@@ -171,6 +226,96 @@ public abstract class FinderFrame extends JDialog {
 		chkCase.setSelected(caseSensitive);
 	}
 
+	/**
+	 * Get the regular expression flag.
+	 * 
+	 * @return is the pattern a regular expression.
+	 */
+	public boolean getRegex() {
+		return chkRegex.isSelected();
+	}
+
+	/**
+	 * Set the regular expression flag.
+	 * 
+	 * @param regex is the pattern a regular expression.
+	 */
+	public void setRegex(boolean regex) {
+		chkRegex.setSelected(regex);
+	}
+
+	/**
+	 * Get the whole words flag.
+	 * 
+	 * @return must a match be a whole word.
+	 */
+	public boolean getWholeWord() {
+		return chkWord.isSelected();
+	}
+
+	/**
+	 * Set the whole words flag.
+	 * 
+	 * @param wholeWord must a match be a whole word.
+	 */
+	public void setWholeWord(boolean wholeWord) {
+		chkWord.setSelected(wholeWord);
+	}
+
+	/**
+	 * Get the fuzzy search flag.
+	 * 
+	 * @return may a match differ from the pattern.
+	 */
+	public boolean getFuzzy() {
+		return chkFuzzy.isSelected();
+	}
+
+	/**
+	 * Set the fuzzy search flag.
+	 * 
+	 * @param fuzzy may a match differ from the pattern.
+	 */
+	public void setFuzzy(boolean fuzzy) {
+		chkFuzzy.setSelected(fuzzy);
+	}
+
+	/**
+	 * Get the number of edits a fuzzy match may have.
+	 * 
+	 * @return number of edits.
+	 */
+	public int getEdits() {
+		return (Integer) spnEdits.getValue();
+	}
+
+	/**
+	 * Set the number of edits a fuzzy match may have.
+	 * 
+	 * @param edits number of edits.
+	 */
+	public void setEdits(int edits) {
+		spnEdits.setValue(Math.max(1, Math.min(edits, MAX_EDITS)));
+	}
+
+	/**
+	 * Get the flag of highlighting all matches.
+	 * 
+	 * @return are all matches highlighted.
+	 */
+	public boolean getHighlightAll() {
+		return chkHighlight.isSelected();
+	}
+
+	/**
+	 * Set the flag of highlighting all matches.
+	 * 
+	 * @param highlightAll are all matches highlighted.
+	 */
+	public void setHighlightAll(boolean highlightAll) {
+		chkHighlight.setSelected(highlightAll);
+	}
+
 	/**
 	 * Get the search down flag.
 	 * 
@@ -189,10 +334,26 @@ public abstract class FinderFrame extends JDialog {
 		opbDown.setSelected(findDown);
 	}
 
+	/** How long typing must pause for the search to begin, milliseconds */
+	private static final int DELAY = 200;
+	/** The most edits of a fuzzy match */
+	private static final int MAX_EDITS = 9;
+
 	/** Pattern */
 	protected JTextField fldWhat;
+	/** Waits for a pause in typing */
+	private Timer typing;
 	/** Case sensitive */
 	private JCheckBox chkCase;
+	/** Regular expression */
+	private JCheckBox chkRegex;
+	/** Whole words */
+	private JCheckBox chkWord;
+	/** Fuzzy search and the number of edits */
+	private JCheckBox chkFuzzy;
+	private JSpinner spnEdits;
+	/** Highlight all matches */
+	private JCheckBox chkHighlight;
 	/** Search up */
 	private JRadioButton opbUp;
 	/** Search down */
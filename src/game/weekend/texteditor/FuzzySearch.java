@@ -0,0 +1,275 @@
+package game.weekend.texteditor;
+
+/**
+ * Approximate search: a match differs from the pattern by at most a given
+ * number of edits (a character inserted, removed or replaced).
+ * <p>
+ * The distances are computed by the bit-parallel algorithm of Myers: a column
+ * of the edit distance table for all the prefixes of the pattern is kept in two
+ * words, the bits of the increments and of the decrements down the column, and
+ * a character of the text moves to the next column in a dozen operations on the
+ * words. So the text is read once at nearly the speed of reading, however many
+ * edits are allowed. The pattern must fit into a word: at most MAX_LENGTH
+ * characters.
+ * <p>
+ * The search finds where a match ends, taking the end where the distance is the
+ * smallest among the nearest ones. The beginning is found by the same algorithm
+ * going back from the end with the reversed pattern. The matches found one
+ * after another do not overlap.
+ */
+public class FuzzySearch implements SearchEngine {
+
+	/**
+	 * Prepare the search for the pattern.
+	 *
+	 * @param pattern       string to search for, not empty.
+	 * @param caseSensitive take the case of the characters into account.
+	 * @param edits         how many edits a match may have; less than the length
+	 *                      of the pattern.
+	 * @throws IllegalArgumentException if the pattern is longer than MAX_LENGTH.
+	 */
+	public FuzzySearch(String pattern, boolean caseSensitive, int edits) {
+		int m = pattern.length();
+		if (m > MAX_LENGTH)
+			throw new IllegalArgumentException(pattern);
+		this.caseSensitive = caseSensitive;
+		this.m = m;
+		this.k = Math.max(0, Math.min(edits, m - 1));
+		this.high = 1L << (m - 1);
+		this.mask = (m == MAX_LENGTH) ? -1L : (1L << m) - 1;
+
+		for (int i = 0; i < HASH; ++i)
+			keys[i] = -1;
+		for (int i = 0; i < m; ++i) {
+			char c = fold(pattern.charAt(i));
+			put(c, 1L << i, false);
+			put(c, 1L << (m - 1 - i), true);
+		}
+	}
+
+	@Override
+	public int find(CharSequence text, int from, int to) {
+		this.text = text;
+		this.to = Math.min(to, text.length());
+		return scan(Math.max(from, 0));
+	}
+
+	@Override
+	public int findNext() {
+		return scan(end);
+	}
+
+	@Override
+	public boolean matches(CharSequence text, int start, int end) {
+		if (start >= end)
+			return false;
+		// The distance between the pattern and the whole part
+		long pv = mask;
+		long mv = 0;
+		int score = m;
+		for (int j = start; j < end; ++j) {
+			long eq = peq(fold(text.charAt(j)), false);
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+			if ((ph & high) != 0)
+				++score;
+			else if ((mh & high) != 0)
+				--score;
+			ph = (ph << 1) | 1;
+			mh <<= 1;
+			pv = (mh | ~(xv | ph)) & mask;
+			mv = ph & xv & mask;
+		}
+		if (score > k)
+			return false;
+		this.text = text;
+		this.to = end;
+		this.start = start;
+		this.end = end;
+		return true;
+	}
+
+	@Override
+	public int end() {
+		return end;
+	}
+
+	@Override
+	public void appendReplacement(StringBuilder sb, String replacement) {
+		sb.append(replacement);
+	}
+
+	/**
+	 * Find the first match from the offset.
+	 *
+	 * @return offset of the match or -1.
+	 */
+	private int scan(int from) {
+		// A match may begin anywhere, so the distance to the empty prefix of the text
+		// is 0 in every column
+		long pv = mask;
+		long mv = 0;
+		int score = m;
+		for (int j = from; j < to; ++j) {
+			long eq = peq(fold(text.charAt(j)), false);
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+			if ((ph & high) != 0)
+				++score;
+			else if ((mh & high) != 0)
+				--score;
+			ph <<= 1;
+			mh <<= 1;
+			pv = (mh | ~(xv | ph)) & mask;
+			mv = ph & xv & mask;
+
+			if (score <= k) {
+				// The next characters may bring the match still closer to the pattern
+				int e = j + 1;
+				while (e < to) {
+					eq = peq(fold(text.charAt(e)), false);
+					xv = eq | mv;
+					xh = (((eq & pv) + pv) ^ pv) | eq;
+					ph = mv | ~(xh | pv);
+					mh = pv & xh;
+					int next = score;
+					if ((ph & high) != 0)
+						++next;
+					else if ((mh & high) != 0)
+						--next;
+					if (next >= score)
+						break;
+					score = next;
+					ph <<= 1;
+					mh <<= 1;
+					pv = (mh | ~(xv | ph)) & mask;
+					mv = ph & xv & mask;
+					++e;
+				}
+				end = e;
+				start = beginning(from, e);
+				return start;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the beginning of the match ending at the offset: the reversed pattern
+	 * is compared with the text going back, and the closest part is taken.
+	 */
+	private int beginning(int from, int end) {
+		long pv = mask;
+		long mv = 0;
+		int score = m;
+		int best = Integer.MAX_VALUE;
+		int begin = end;
+		int limit = Math.max(from, end - m - k);
+		for (int j = end - 1; j >= limit; --j) {
+			long eq = peq(fold(text.charAt(j)), true);
+			long xv = eq | mv;
+			long xh = (((eq & pv) + pv) ^ pv) | eq;
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+			if ((ph & high) != 0)
+				++score;
+			else if ((mh & high) != 0)
+				--score;
+			// The match must end where it has been found, so every character of the
+			// text counts
+			ph = (ph << 1) | 1;
+			mh <<= 1;
+			pv = (mh | ~(xv | ph)) & mask;
+			mv = ph & xv & mask;
+			if (score < best) {
+				best = score;
+				begin = j;
+			}
+		}
+		return begin;
+	}
+
+	/**
+	 * Get the bits of the positions of the character in the pattern.
+	 */
+	private long peq(char c, boolean reversed) {
+		if (c < LATIN)
+			return reversed ? latinBack[c] : latin[c];
+		for (int i = hash(c);; i = (i + 1) & (HASH - 1)) {
+			if (keys[i] == c)
+				return reversed ? valuesBack[i] : values[i];
+			if (keys[i] == -1)
+				return 0;
+		}
+	}
+
+	private void put(char c, long bit, boolean reversed) {
+		if (c < LATIN) {
+			if (reversed)
+				latinBack[c] |= bit;
+			else
+				latin[c] |= bit;
+			return;
+		}
+		int i = hash(c);
+		while (keys[i] != -1 && keys[i] != c)
+			i = (i + 1) & (HASH - 1);
+		keys[i] = c;
+		if (reversed)
+			valuesBack[i] |= bit;
+		else
+			values[i] |= bit;
+	}
+
+	private static int hash(char c) {
+		return ((c * 0x9E3779B1) >>> 25) & (HASH - 1);
+	}
+
+	/**
+	 * Bring the character to the form in which it is compared.
+	 */
+	private char fold(char c) {
+		if (caseSensitive)
+			return c;
+		if (c < 128)
+			return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		// The same as String.equalsIgnoreCase() does
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/** The longest pattern, the number of bits in a word */
+	public static final int MAX_LENGTH = 64;
+
+	/** The characters whose bits are in an array */
+	private static final int LATIN = 256;
+	/** Size of the table of the other characters, more than MAX_LENGTH */
+	private static final int HASH = 128;
+
+	private final boolean caseSensitive;
+	/** Length of the pattern */
+	private final int m;
+	/** Number of the edits allowed */
+	private final int k;
+	/** The bit of the last character of the pattern */
+	private final long high;
+	/** The bits of all the characters of the pattern */
+	private final long mask;
+
+	/** Positions of the characters in the pattern and in the reversed pattern */
+	private final long[] latin = new long[LATIN];
+	private final long[] latinBack = new long[LATIN];
+	private final int[] keys = new int[HASH];
+	private final long[] values = new long[HASH];
+	private final long[] valuesBack = new long[HASH];
+
+	/** The text and the end of the part being searched */
+	private CharSequence text;
+	private int to;
+	/** The current match */
+	private int start;
+	private int end;
+}
@@ -0,0 +1,165 @@
+package game.weekend.texteditor;
+
+/**
+ * Search for a string by the Boyer-Moore-Horspool algorithm.
+ * <p>
+ * The last character of the pattern is compared with the text first, and if it
+ * does not match, the pattern is shifted by as many characters as the table
+ * says for that character of the text. So most of the text is not even looked
+ * at. The characters of the text are compared without the case, if required,
+ * one by one as they are read, and the text is not converted.
+ */
+public class Horspool {
+
+	/**
+	 * Prepare the search for the pattern.
+	 *
+	 * @param pattern       string to search for, not empty.
+	 * @param caseSensitive take the case of the characters into account.
+	 */
+	public Horspool(String pattern, boolean caseSensitive) {
+		this.caseSensitive = caseSensitive;
+
+		int m = pattern.length();
+		p = new char[m];
+		for (int i = 0; i < m; ++i)
+			p[i] = fold(pattern.charAt(i));
+
+		// Characters that fall into the same cell get the smallest shift
+		for (int i = 0; i < SHIFTS; ++i) {
+			shift[i] = m;
+			shiftBack[i] = m;
+		}
+		for (int i = 0; i < m - 1; ++i)
+			shift[p[i] & (SHIFTS - 1)] = m - 1 - i;
+		for (int i = m - 1; i > 0; --i)
+			shiftBack[p[i] & (SHIFTS - 1)] = i;
+	}
+
+	/**
+	 * Can two occurrences of the pattern overlap? They can if the pattern ends
+	 * with its own beginning.
+	 *
+	 * @return true/false.
+	 */
+	public boolean canOverlap() {
+		int m = p.length;
+		for (int k = 1; k < m; ++k) {
+			int i = 0;
+			while (i + k < m && p[i] == p[i + k])
+				++i;
+			if (i + k == m)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the length of the found text.
+	 *
+	 * @return length of the pattern.
+	 */
+	public int length() {
+		return p.length;
+	}
+
+	/**
+	 * Find the first occurrence of the pattern beginning not before the offset.
+	 *
+	 * @param text text.
+	 * @param from where to begin.
+	 * @return offset of the occurrence or -1.
+	 */
+	public int indexOf(CharSequence text, int from) {
+		return indexOf(text, from, text.length());
+	}
+
+	/**
+	 * Find the first occurrence of the pattern lying in a part of the text.
+	 *
+	 * @param text text.
+	 * @param from where to begin.
+	 * @param to   where the occurrence must end.
+	 * @return offset of the occurrence or -1.
+	 */
+	public int indexOf(CharSequence text, int from, int to) {
+		int m = p.length;
+		int last = m - 1;
+		int n = Math.min(to, text.length());
+		int s = Math.max(from, 0);
+		while (s <= n - m) {
+			char c = fold(text.charAt(s + last));
+			if (c == p[last]) {
+				int i = 0;
+				while (i < last && fold(text.charAt(s + i)) == p[i])
+					++i;
+				if (i == last)
+					return s;
+			}
+			s += shift[c & (SHIFTS - 1)];
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the last occurrence of the pattern ending not after the offset.
+	 *
+	 * @param text text.
+	 * @param end  where the occurrence must end.
+	 * @return offset of the occurrence or -1.
+	 */
+	public int lastIndexOf(CharSequence text, int end) {
+		int m = p.length;
+		int s = Math.min(end, text.length()) - m;
+		while (s >= 0) {
+			char c = fold(text.charAt(s));
+			if (c == p[0]) {
+				int i = 1;
+				while (i < m && fold(text.charAt(s + i)) == p[i])
+					++i;
+				if (i == m)
+					return s;
+			}
+			s -= shiftBack[c & (SHIFTS - 1)];
+		}
+		return -1;
+	}
+
+	/**
+	 * Does the pattern occur in the text at the offset?
+	 *
+	 * @param text text.
+	 * @param at   offset.
+	 * @return true/false.
+	 */
+	public boolean matchesAt(CharSequence text, int at) {
+		if (at < 0 || at + p.length > text.length())
+			return false;
+		for (int i = 0; i < p.length; ++i)
+			if (fold(text.charAt(at + i)) != p[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Bring the character to the form in which it is compared.
+	 */
+	private char fold(char c) {
+		if (caseSensitive)
+			return c;
+		// The same as String.equalsIgnoreCase() does
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/** Size of the shift tables, the characters are taken by the lower bits */
+	private static final int SHIFTS = 256;
+
+	private final boolean caseSensitive;
+
+	/** The pattern in the form in which it is compared */
+	private final char[] p;
+	/** Shifts of the search forward by the last character of the window */
+	private final int[] shift = new int[SHIFTS];
+	/** Shifts of the search backward by the first character of the window */
+	private final int[] shiftBack = new int[SHIFTS];
+}
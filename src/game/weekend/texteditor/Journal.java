@@ -0,0 +1,192 @@
+package game.weekend.texteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.swing.text.Segment;
+
+/**
+ * File to which large inserted texts are only appended, and from which they
+ * are read through memory mapping.
+ * <p>
+ * A large paste or the result of "Replace all" would stay on the heap as long
+ * as the text or the history of its changes refers to it. In the journal it
+ * takes only the pages of the file the system keeps in memory, and the pieces
+ * of the text and of the history are small descriptions of its parts.
+ * <p>
+ * Like AppendBuffer, the journal never changes what has been written, so any
+ * thread can read the text written before it took a snapshot. The file is
+ * deleted when the journal is closed, or at the latest when the program ends.
+ */
+public class Journal {
+
+	/**
+	 * Create an empty journal in a temporary file.
+	 *
+	 * @return journal.
+	 * @throws IOException if the file cannot be created.
+	 */
+	public static Journal create() throws IOException {
+		File file = File.createTempFile("weekend", ".journal");
+		file.deleteOnExit();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE);
+		return new Journal(channel);
+	}
+
+	private Journal(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Get the length of the text written.
+	 *
+	 * @return number of characters.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Append text.
+	 *
+	 * @param str text, a String or the characters of an array (CharBuffer.wrap()).
+	 * @return index of the first character of the text in the journal.
+	 * @throws IOException if the text cannot be written.
+	 */
+	public synchronized int append(CharSequence str) throws IOException {
+		int start = length;
+		if ((long) start + str.length() > Integer.MAX_VALUE)
+			throw new IOException("The journal is full");
+
+		ByteBuffer bytes = ByteBuffer.allocate(WRITE * 2);
+		int from = 0;
+		while (from < str.length()) {
+			// A region is mapped as one buffer
+			int count = Math.min(str.length() - from, REGION);
+			long position = (long) (start + from) * 2;
+			for (int i = 0; i < count;) {
+				int n = Math.min(count - i, WRITE);
+				bytes.clear();
+				bytes.asCharBuffer().append(str, from + i, from + i + n);
+				bytes.limit(n * 2);
+				while (bytes.hasRemaining())
+					channel.write(bytes, position + (long) i * 2 + bytes.position());
+				i += n;
+			}
+
+			CharBuffer chars = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 2).asCharBuffer();
+			Region[] r = Arrays.copyOf(regions, regions.length + 1);
+			r[r.length - 1] = new Region(start + from, chars);
+			regions = r;
+			from += count;
+		}
+
+		length = start + str.length();
+		return start;
+	}
+
+	/**
+	 * Get a part of the text. The characters are copied from the mapped file, the
+	 * segment gets at most those of one region and not more than WINDOW.
+	 *
+	 * @param offset index of the first character.
+	 * @param length number of characters, at least one.
+	 * @param txt    segment receiving the characters.
+	 */
+	public void getText(int offset, int length, Segment txt) {
+		getText(offset, length, txt, null);
+	}
+
+	/**
+	 * Get a part of the text into the buffer of the reader. The segment gets at
+	 * most the characters of one region and not more than the buffer holds.
+	 *
+	 * @param offset index of the first character.
+	 * @param length number of characters, at least one.
+	 * @param txt    segment receiving the characters.
+	 * @param buffer array of the reader, or null to get a new array of at most
+	 *               WINDOW characters.
+	 */
+	public void getText(int offset, int length, Segment txt, char[] buffer) {
+		Region r = getRegion(offset);
+		int count = Math.min(length, r.first + r.chars.limit() - offset);
+		if (buffer == null)
+			buffer = new char[Math.min(count, WINDOW)];
+		count = Math.min(count, buffer.length);
+		CharBuffer b = r.chars.duplicate();
+		b.position(offset - r.first);
+		b.get(buffer, 0, count);
+		txt.array = buffer;
+		txt.offset = 0;
+		txt.count = count;
+	}
+
+	/**
+	 * Get a character.
+	 *
+	 * @param index index of the character.
+	 * @return character.
+	 */
+	public char charAt(int index) {
+		Region r = getRegion(index);
+		return r.chars.get(index - r.first);
+	}
+
+	/**
+	 * Close the file, which deletes it. The text written can still be read: the
+	 * regions stay mapped until they are collected. Nothing more can be appended.
+	 *
+	 * @throws IOException if the file cannot be closed.
+	 */
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Find the region containing the character.
+	 */
+	private Region getRegion(int index) {
+		Region[] r = regions;
+		int lo = 0;
+		int hi = r.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (r[mid].first <= index)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return r[lo];
+	}
+
+	/**
+	 * A part of the file mapped as one buffer.
+	 */
+	private static class Region {
+		Region(int first, CharBuffer chars) {
+			this.first = first;
+			this.chars = chars;
+		}
+
+		final int first;
+		final CharBuffer chars;
+	}
+
+	/** The most characters in a region, 128 megabytes */
+	private static final int REGION = 1 << 26;
+	/** The most characters written at once */
+	private static final int WRITE = 1 << 20;
+	/** The most characters given to a segment */
+	private static final int WINDOW = 1 << 16;
+
+	private final FileChannel channel;
+	/** The regions are replaced, not changed, so that other threads can read them */
+	private volatile Region[] regions = new Region[0];
+	private volatile int length = 0;
+}
@@ -0,0 +1,121 @@
+package game.weekend.texteditor;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JCheckBox;
+import javax.swing.JEditorPane;
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+/**
+ * Keywords highlighted in every text opened, such as error codes or host names
+ * to watch for in logs.
+ * <p>
+ * The list of the keywords is kept in the settings, one keyword per line. The
+ * automaton searching for them is built once, when the list is read or changed,
+ * and is used for every text.
+ */
+public class Keywords {
+
+	/**
+	 * Create the keywords of the JEditorPane.
+	 *
+	 * @param pane  JEditorPane.
+	 * @param frame frame containing the JEditorPane.
+	 */
+	public Keywords(JEditorPane pane, JFrame frame) {
+		this.appFrame = frame;
+		this.list = Proper.getProperty("Keywords", "");
+		this.caseSensitive = Proper.getProperty("KeywordsCaseSensitive", "FALSE").equalsIgnoreCase("TRUE");
+		this.highlighted = Proper.getProperty("KeywordsON", "FALSE").equalsIgnoreCase("TRUE");
+		this.tracker = new MatchTracker(pane, new Color(120, 200, 255, 110), new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		tracker.setHighlighted(true);
+		build();
+
+		// Another text is opened. The tracker forgets the old one first, so the new
+		// one is taken after it.
+		pane.addPropertyChangeListener("document", new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						track();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Ask for the keywords and whether to highlight them.
+	 */
+	public void edit() {
+		JCheckBox chkOn = new JCheckBox(Loc.get("highlight_keywords"), highlighted);
+		JCheckBox chkCase = new JCheckBox(Loc.get("case_sensitive"), caseSensitive);
+		JTextArea area = new JTextArea(list);
+		JScrollPane scroll = new JScrollPane(area);
+		scroll.setPreferredSize(new Dimension(360, 240));
+
+		int result = JOptionPane.showConfirmDialog(appFrame,
+				new Object[] { chkOn, chkCase, Loc.get("one_keyword_per_line") + ":", scroll }, Loc.get("keywords"),
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+		if (result != JOptionPane.OK_OPTION)
+			return;
+
+		list = area.getText();
+		Proper.setProperty("Keywords", list);
+		caseSensitive = chkCase.isSelected();
+		Proper.setProperty("KeywordsCaseSensitive", caseSensitive ? "TRUE" : "FALSE");
+		highlighted = chkOn.isSelected();
+		Proper.setProperty("KeywordsON", highlighted ? "TRUE" : "FALSE");
+
+		build();
+	}
+
+	/**
+	 * Build the automaton for the list and highlight the keywords in the text.
+	 */
+	private void build() {
+		List<String> words = new ArrayList<String>();
+		for (String line : list.split("\n")) {
+			line = line.trim();
+			if (!line.isEmpty())
+				words.add(line);
+		}
+		automaton = new AhoCorasick(words, caseSensitive);
+		track();
+	}
+
+	/**
+	 * Highlight the keywords in the text shown, or remove the highlighting.
+	 */
+	private void track() {
+		if (highlighted)
+			tracker.track(automaton);
+		else
+			tracker.clear();
+	}
+
+	private JFrame appFrame;
+
+	/** Keywords, one per line */
+	private String list;
+	private boolean caseSensitive;
+	private boolean highlighted;
+
+	private AhoCorasick automaton;
+	private MatchTracker tracker;
+}
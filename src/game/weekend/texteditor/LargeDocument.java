@@ -0,0 +1,376 @@
+package game.weekend.texteditor;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Document of a large file opened by memory mapping.
+ * <p>
+ * PlainDocument keeps an element with two positions for every line, which for a
+ * log of tens of millions of lines takes more memory than the file itself. Here
+ * the lines are taken from the index of their beginnings kept by the content
+ * (PieceContent), and the line elements are created only when someone asks for
+ * them.
+ */
+@SuppressWarnings("serial")
+public class LargeDocument extends AbstractDocument {
+
+	/**
+	 * Create an empty document.
+	 */
+	public LargeDocument() {
+		this(null);
+	}
+
+	/**
+	 * Create a document of the mapped text.
+	 *
+	 * @param text mapped text.
+	 */
+	public LargeDocument(MappedText text) {
+		super(new PieceContent(text));
+		putProperty(PlainDocument.tabSizeAttribute, 8);
+		lines = ((PieceContent) getContent()).getLineIndex();
+		maxLineLength = (text == null) ? 0 : text.getMaxLineLength();
+	}
+
+	/**
+	 * Get the length of the longest line in characters. The value is used to
+	 * estimate the width of the text and never decreases.
+	 *
+	 * @return length of the longest line.
+	 */
+	public int getMaxLineLength() {
+		return maxLineLength;
+	}
+
+	/**
+	 * Get the index of the beginnings of the lines. The content keeps it up to date
+	 * as the text is edited.
+	 *
+	 * @return index of the beginnings of the lines.
+	 */
+	public LineIndex getLineIndex() {
+		return lines;
+	}
+
+	/**
+	 * Is the text the text of the file as it has been opened?
+	 *
+	 * @return true/false.
+	 */
+	public boolean isOriginal() {
+		readLock();
+		try {
+			return ((PieceContent) getContent()).isOriginal();
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Get a part of the text like getText() with a partial return, putting the
+	 * characters that have to be made, decoded from a file or read from the
+	 * journal, into the buffer of the reader instead of a new array.
+	 *
+	 * @param offset offset of the first character.
+	 * @param length number of characters.
+	 * @param txt    segment receiving the characters.
+	 * @param buffer array of the reader.
+	 * @throws BadLocationException if the range is not in the text.
+	 */
+	public void getText(int offset, int length, Segment txt, char[] buffer) throws BadLocationException {
+		((PieceContent) getContent()).getChars(offset, length, txt, buffer);
+	}
+
+	/**
+	 * Start a text that is written part by part into the content and then put
+	 * into the document by replace(int, int, PieceContent.Text).
+	 *
+	 * @return text to write.
+	 */
+	public PieceContent.Text newText() {
+		return ((PieceContent) getContent()).newText();
+	}
+
+	/**
+	 * Replace a part of the text with a text written beforehand, like replace().
+	 * The listeners are told of one removal and one insertion, and the text is not
+	 * made into a String on the way.
+	 *
+	 * @param offset beginning of the part.
+	 * @param length length of the part.
+	 * @param text   new text.
+	 * @throws BadLocationException if the part is not in the text.
+	 */
+	public void replace(int offset, int length, PieceContent.Text text) throws BadLocationException {
+		writeLock();
+		try {
+			if (length > 0)
+				remove(offset, length);
+			if (text.length() > 0) {
+				// What insertString() decides by the inserted String
+				if (text.isBidi())
+					putProperty(I18N, Boolean.TRUE);
+				UndoableEdit edit = ((PieceContent) getContent()).insertText(offset, text);
+				DefaultDocumentEvent e = new DefaultDocumentEvent(offset, text.length(),
+						DocumentEvent.EventType.INSERT);
+				e.addEdit(edit);
+				insertUpdate(e, null);
+				e.end();
+				fireInsertUpdate(e);
+				fireUndoableEditUpdate(new UndoableEditEvent(this, e));
+			}
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	/**
+	 * Release the journal of the content when the document is no longer edited.
+	 */
+	public void close() {
+		((PieceContent) getContent()).close();
+	}
+
+	/**
+	 * Take a snapshot of the text that can be read by another thread.
+	 *
+	 * @return snapshot of the text.
+	 */
+	public TextSnapshot getSnapshot() {
+		readLock();
+		try {
+			return ((PieceContent) getContent()).snapshot();
+		} finally {
+			readUnlock();
+		}
+	}
+
+	@Override
+	public Element getDefaultRootElement() {
+		return root;
+	}
+
+	@Override
+	public Element getParagraphElement(int pos) {
+		return root.getElement(root.getElementIndex(pos));
+	}
+
+	@Override
+	protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+		// The content has already updated the index
+		int first = lines.getLineOfOffset(chng.getOffset());
+		int last = lines.getLineOfOffset(chng.getOffset() + chng.getLength());
+		for (int i = first; i <= last; ++i)
+			maxLineLength = Math.max(maxLineLength, root.getLineEnd(i) - lines.getLineStart(i) - 1);
+
+		if (last > first) {
+			Element removed = new Line(lines.getLineStart(first), root.getLineEnd(last));
+			chng.addEdit(new LineChange(first, removed, new Line(first)));
+		}
+		super.insertUpdate(chng, attr);
+	}
+
+	@Override
+	protected void removeUpdate(DefaultDocumentEvent chng) {
+		// The content has not yet removed the text
+		int first = lines.getLineOfOffset(chng.getOffset());
+		int last = lines.getLineOfOffset(chng.getOffset() + chng.getLength());
+		if (last > first) {
+			Element added = new Line(lines.getLineStart(first), root.getLineEnd(last) - chng.getLength());
+			chng.addEdit(new LineChange(first, new Line(first), added));
+		}
+		super.removeUpdate(chng);
+	}
+
+	/**
+	 * The root element. Its children are the lines.
+	 */
+	private class Root implements Element {
+
+		@Override
+		public Document getDocument() {
+			return LargeDocument.this;
+		}
+
+		@Override
+		public Element getParentElement() {
+			return null;
+		}
+
+		@Override
+		public String getName() {
+			return ParagraphElementName;
+		}
+
+		@Override
+		public AttributeSet getAttributes() {
+			return SimpleAttributeSet.EMPTY;
+		}
+
+		@Override
+		public int getStartOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getEndOffset() {
+			return getLength() + 1;
+		}
+
+		@Override
+		public int getElementIndex(int offset) {
+			return lines.getLineOfOffset(Math.max(offset, 0));
+		}
+
+		@Override
+		public int getElementCount() {
+			return lines.getLineCount();
+		}
+
+		@Override
+		public Element getElement(int index) {
+			if (index < 0 || index >= lines.getLineCount())
+				return null;
+			return new Line(index);
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return false;
+		}
+
+		/**
+		 * Get the end of the line, that is, the beginning of the next one.
+		 */
+		int getLineEnd(int line) {
+			return (line + 1 < lines.getLineCount()) ? lines.getLineStart(line + 1) : getLength() + 1;
+		}
+	}
+
+	/**
+	 * A line. It is created on request and remembers the offsets the line had at
+	 * that moment.
+	 */
+	private class Line implements Element {
+
+		Line(int line) {
+			this(lines.getLineStart(line), root.getLineEnd(line));
+		}
+
+		Line(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Document getDocument() {
+			return LargeDocument.this;
+		}
+
+		@Override
+		public Element getParentElement() {
+			return root;
+		}
+
+		@Override
+		public String getName() {
+			return ContentElementName;
+		}
+
+		@Override
+		public AttributeSet getAttributes() {
+			return SimpleAttributeSet.EMPTY;
+		}
+
+		@Override
+		public int getStartOffset() {
+			return start;
+		}
+
+		@Override
+		public int getEndOffset() {
+			return end;
+		}
+
+		@Override
+		public int getElementIndex(int offset) {
+			return -1;
+		}
+
+		@Override
+		public int getElementCount() {
+			return 0;
+		}
+
+		@Override
+		public Element getElement(int index) {
+			return null;
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return true;
+		}
+
+		private final int start;
+		private final int end;
+	}
+
+	/**
+	 * Notice for the views that lines were added or removed. The lines are
+	 * described by one line before and one line after the change, not each one:
+	 * the views only need to know that the lines have changed. The change itself
+	 * is undone by the content.
+	 */
+	private class LineChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+
+		LineChange(int index, Element removed, Element added) {
+			this.index = index;
+			this.removed = new Element[] { removed };
+			this.added = new Element[] { added };
+		}
+
+		@Override
+		public Element getElement() {
+			return root;
+		}
+
+		@Override
+		public int getIndex() {
+			return index;
+		}
+
+		@Override
+		public Element[] getChildrenRemoved() {
+			return removed;
+		}
+
+		@Override
+		public Element[] getChildrenAdded() {
+			return added;
+		}
+
+		private final int index;
+		private final Element[] removed;
+		private final Element[] added;
+	}
+
+	private final LineIndex lines;
+	private final Root root = new Root();
+	private int maxLineLength;
+
+	/** The property of AbstractDocument telling that the text is laid out in both directions */
+	private static final String I18N = "i18n";
+}
@@ -0,0 +1,98 @@
+package game.weekend.texteditor;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Shape;
+
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainView;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * Editor kit for large files opened by memory mapping.
+ * <p>
+ * The usual kit of JEditorPane wraps lines and creates a view for every line,
+ * and PlainView measures every line to find the longest one. Both read the
+ * whole file before the first paint. The view of this kit does not wrap lines,
+ * paints only the visible ones and estimates the width of the text by the
+ * length of the longest line known to the document (LargeDocument).
+ */
+@SuppressWarnings("serial")
+public class LargeEditorKit extends DefaultEditorKit implements ViewFactory {
+
+	@Override
+	public String getContentType() {
+		return "text/plain";
+	}
+
+	@Override
+	public Document createDefaultDocument() {
+		return new LargeDocument();
+	}
+
+	@Override
+	public ViewFactory getViewFactory() {
+		return this;
+	}
+
+	@Override
+	public View create(Element elem) {
+		return new LargeView(elem);
+	}
+
+	/**
+	 * View of the lines of a large document.
+	 */
+	private static class LargeView extends PlainView {
+
+		LargeView(Element elem) {
+			super(elem);
+		}
+
+		/**
+		 * Unlike PlainView, the longest line is not searched for, only the font
+		 * metrics are updated.
+		 */
+		@Override
+		protected void updateMetrics() {
+			Component host = getContainer();
+			if (host == null)
+				return;
+			if (metrics == null || !metrics.getFont().equals(host.getFont())) {
+				metrics = host.getFontMetrics(host.getFont());
+				tabWidth = getTabSize() * metrics.charWidth('m');
+			}
+		}
+
+		@Override
+		public float getPreferredSpan(int axis) {
+			if (axis == View.X_AXIS) {
+				updateMetrics();
+				Document doc = getDocument();
+				int chars = (doc instanceof LargeDocument) ? ((LargeDocument) doc).getMaxLineLength() : 0;
+				return (metrics == null) ? 0 : (chars + 1) * metrics.charWidth('m');
+			}
+			return super.getPreferredSpan(axis);
+		}
+
+		@Override
+		public void paint(Graphics g, Shape a) {
+			tabBase = a.getBounds().x;
+			super.paint(g, a);
+		}
+
+		@Override
+		public float nextTabStop(float x, int tabOffset) {
+			if (tabWidth == 0)
+				return x;
+			int ntabs = (int) ((x - tabBase) / tabWidth);
+			return tabBase + ((ntabs + 1) * tabWidth);
+		}
+
+		private int tabWidth;
+		private int tabBase;
+	}
+}
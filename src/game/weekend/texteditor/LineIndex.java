@@ -0,0 +1,230 @@
+package game.weekend.texteditor;
+
+import java.util.Arrays;
+
+/**
+ * Index of the beginnings of lines of a text.
+ * <p>
+ * The beginnings are kept in a primitive array sorted in ascending order, the
+ * first line always begins at 0. Inserting or removing text shifts the
+ * beginnings of all the lines that follow. In order not to walk through the
+ * whole array on every keystroke, the shift is remembered (stepLine,
+ * stepLength) and applied lazily, only when the edits move to another part of
+ * the text. Therefore, an edit costs about as much as the number of lines it
+ * adds or removes, and finding the line of an offset is a binary search.
+ */
+public class LineIndex {
+
+	/**
+	 * Create an index of a text consisting of one empty line.
+	 */
+	public LineIndex() {
+		starts = new int[16];
+		count = 1;
+	}
+
+	/**
+	 * Get the number of lines.
+	 *
+	 * @return number of lines, at least one.
+	 */
+	public int getLineCount() {
+		return count;
+	}
+
+	/**
+	 * Get the offset at which the line begins.
+	 *
+	 * @param line line number 0..getLineCount()-1.
+	 * @return offset of the first character of the line.
+	 */
+	public int getLineStart(int line) {
+		int start = starts[line];
+		if (line > stepLine)
+			start += stepLength;
+		return start;
+	}
+
+	/**
+	 * Get the number of the line containing the offset.
+	 *
+	 * @param offset offset in the text.
+	 * @return line number 0..getLineCount()-1.
+	 */
+	public int getLineOfOffset(int offset) {
+		int lo = 0;
+		int hi = count - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (getLineStart(mid) <= offset)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Add the beginning of a line at the end of the index. Used when the index is
+	 * built by scanning a text.
+	 *
+	 * @param start offset of the beginning of the line.
+	 */
+	public void addLine(int start) {
+		applyStep(count - 1);
+		ensureCapacity(count + 1);
+		starts[count++] = start;
+	}
+
+	/**
+	 * Update the index after text has been inserted.
+	 *
+	 * @param offset where the text was inserted.
+	 * @param text   inserted text.
+	 */
+	public void insertUpdate(int offset, CharSequence text) {
+		int line = getLineOfOffset(offset);
+		int length = text.length();
+		shift(line, length);
+		for (int i = 0; i < length; ++i) {
+			if (text.charAt(i) == '\n')
+				insertLine(++line, offset + i + 1);
+		}
+	}
+
+	/**
+	 * Update the index after text has been inserted.
+	 *
+	 * @param offset where the text was inserted.
+	 * @param text   inserted text.
+	 * @param begin  start of the text in the array.
+	 * @param length length of the text.
+	 */
+	public void insertUpdate(int offset, char[] text, int begin, int length) {
+		int line = getLineOfOffset(offset);
+		shift(line, length);
+		for (int i = 0; i < length; ++i) {
+			if (text[begin + i] == '\n')
+				insertLine(++line, offset + i + 1);
+		}
+	}
+
+	/**
+	 * Update the index after text has been removed.
+	 *
+	 * @param offset where the text was removed.
+	 * @param length the number of removed characters.
+	 */
+	public void removeUpdate(int offset, int length) {
+		int first = getLineOfOffset(offset);
+		int last = getLineOfOffset(offset + length);
+
+		// The lines that began inside the removed text are gone. The line that
+		// begins exactly at offset keeps its line feed in front of it.
+		if (last > first)
+			removeLines(first + 1, last - first);
+		shift(first, -length);
+	}
+
+	/**
+	 * Shift the beginnings of the lines following the line.
+	 *
+	 * @param line  the line in which the text changed.
+	 * @param delta by how much the following lines move.
+	 */
+	private void shift(int line, int delta) {
+		if (stepLength != 0) {
+			if (line >= stepLine) {
+				applyStep(line);
+			} else if (line >= stepLine - count / 10) {
+				backStep(line);
+			} else {
+				applyStep(count - 1);
+				stepLine = line;
+				stepLength = 0;
+			}
+		} else {
+			stepLine = line;
+		}
+		stepLength += delta;
+		if (stepLine >= count - 1) {
+			stepLine = count - 1;
+			stepLength = 0;
+		}
+	}
+
+	/**
+	 * Insert the beginning of a line.
+	 *
+	 * @param line  number of the new line.
+	 * @param start its absolute offset.
+	 */
+	private void insertLine(int line, int start) {
+		if (stepLine < line)
+			applyStep(line - 1);
+		ensureCapacity(count + 1);
+		System.arraycopy(starts, line, starts, line + 1, count - line);
+		starts[line] = start;
+		++count;
+		++stepLine;
+		if (stepLine >= count - 1) {
+			applyStep(count - 1);
+		}
+	}
+
+	/**
+	 * Remove the beginnings of several lines.
+	 *
+	 * @param line number of the first line to remove.
+	 * @param n    number of lines to remove.
+	 */
+	private void removeLines(int line, int n) {
+		if (line + n - 1 > stepLine)
+			applyStep(line + n - 1);
+		System.arraycopy(starts, line + n, starts, line, count - line - n);
+		count -= n;
+		stepLine -= n;
+		if (stepLine < line - 1)
+			stepLine = line - 1;
+		if (stepLine >= count - 1) {
+			stepLine = count - 1;
+			stepLength = 0;
+		}
+	}
+
+	/**
+	 * Apply the pending shift to the lines up to the line inclusive.
+	 */
+	private void applyStep(int upTo) {
+		if (stepLength != 0) {
+			for (int i = stepLine + 1; i <= upTo; ++i)
+				starts[i] += stepLength;
+		}
+		stepLine = upTo;
+		if (stepLine >= count - 1) {
+			stepLine = count - 1;
+			stepLength = 0;
+		}
+	}
+
+	/**
+	 * Withdraw the pending shift from the lines following the line.
+	 */
+	private void backStep(int downTo) {
+		for (int i = downTo + 1; i <= stepLine; ++i)
+			starts[i] -= stepLength;
+		stepLine = downTo;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > starts.length)
+			starts = Arrays.copyOf(starts, Math.max(capacity, starts.length + (starts.length >> 1)));
+	}
+
+	private int[] starts;
+	private int count;
+
+	/** Lines after stepLine have not yet received stepLength */
+	private int stepLine = 0;
+	private int stepLength = 0;
+}
@@ -0,0 +1,122 @@
+package game.weekend.texteditor;
+
+import javax.swing.text.Document;
+
+/**
+ * Search for a substring, with or without the case of the letters.
+ * <p>
+ * The substring is found by the Boyer-Moore-Horspool algorithm. The whole
+ * document is searched by all the processors, or by the index of a large file
+ * if the file has one and has not been edited. The matches found one after
+ * another do not overlap.
+ */
+public class LiteralSearch implements SearchEngine {
+
+	/**
+	 * Prepare the search for the substring.
+	 *
+	 * @param pattern       substring, not empty.
+	 * @param caseSensitive is the case of the letters significant.
+	 */
+	public LiteralSearch(String pattern, boolean caseSensitive) {
+		this.pattern = pattern;
+		this.search = new Horspool(pattern, caseSensitive);
+	}
+
+	/**
+	 * Get the search by the Boyer-Moore-Horspool algorithm. It is not changed by
+	 * the search and can be used by several threads.
+	 *
+	 * @return search for the substring.
+	 */
+	public Horspool getHorspool() {
+		return search;
+	}
+
+	@Override
+	public int find(CharSequence text, int from, int to) {
+		this.text = text;
+		this.to = to;
+		return found(search.indexOf(text, from, to));
+	}
+
+	@Override
+	public int findNext() {
+		return found(search.indexOf(text, start + pattern.length(), to));
+	}
+
+	@Override
+	public int lastIndexOf(CharSequence text, int end) {
+		this.text = text;
+		this.to = end;
+		return found(search.lastIndexOf(text, end));
+	}
+
+	@Override
+	public int indexOf(Document doc, int from) {
+		TextSnapshot snapshot = TextSnapshot.of(doc);
+		TrigramIndex index = TrigramIndex.of(doc);
+		if (index != null && TrigramIndex.canFind(pattern))
+			return found(doc, index.indexOf(snapshot, pattern, search, from));
+		return found(doc, new ParallelSearch(search).indexOf(snapshot, from));
+	}
+
+	@Override
+	public int lastIndexOf(Document doc, int end) {
+		TextSnapshot snapshot = TextSnapshot.of(doc);
+		TrigramIndex index = TrigramIndex.of(doc);
+		if (index != null && TrigramIndex.canFind(pattern))
+			return found(doc, index.lastIndexOf(snapshot, pattern, search, end));
+		return found(doc, new ParallelSearch(search).lastIndexOf(snapshot, end));
+	}
+
+	@Override
+	public boolean matches(CharSequence text, int start, int end) {
+		if (end - start != pattern.length() || !search.matchesAt(text, start))
+			return false;
+		this.text = text;
+		this.to = end;
+		this.start = start;
+		return true;
+	}
+
+	@Override
+	public int end() {
+		return start + pattern.length();
+	}
+
+	@Override
+	public void appendReplacement(StringBuilder sb, String replacement) {
+		sb.append(replacement);
+	}
+
+	/**
+	 * Remember the match found in the document; the next one is searched for in
+	 * the whole document.
+	 */
+	private int found(Document doc, int i) {
+		if (i >= 0) {
+			text = new DocumentChars(doc);
+			to = text.length();
+		}
+		return found(i);
+	}
+
+	/**
+	 * Remember the match found.
+	 */
+	private int found(int i) {
+		if (i >= 0)
+			start = i;
+		return i;
+	}
+
+	private final String pattern;
+	private final Horspool search;
+
+	/** The text and the end of the part being searched */
+	private CharSequence text;
+	private int to;
+	/** Beginning of the current match */
+	private int start;
+}
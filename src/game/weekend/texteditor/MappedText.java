@@ -0,0 +1,445 @@
+package game.weekend.texteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import javax.swing.text.Segment;
+
+/**
+ * Read-only text of a memory-mapped UTF-8 file.
+ * <p>
+ * The file is not read into the heap. When the object is created, the mapped
+ * bytes are scanned once: the characters are counted and the beginnings of the
+ * lines are found. After that, characters are decoded on demand. The file is
+ * divided into blocks of BLOCK bytes, for each block the index of its first
+ * character is remembered, and the block containing the requested character is
+ * decoded. The last decoded block is kept, so reading the text in a row costs
+ * one decoding per block. If the file contains only ASCII characters, there is
+ * nothing to decode and the bytes are the characters.
+ * <p>
+ * Incorrect byte sequences are shown as the character U+FFFD, one per byte.
+ */
+public class MappedText implements TextSnapshot {
+
+	/**
+	 * Map the file into memory.
+	 *
+	 * @param file file.
+	 * @return text of the file.
+	 * @throws IOException if the file cannot be read or does not fit into a
+	 *                     document.
+	 */
+	public static MappedText map(File file) throws IOException {
+		return map(file, null);
+	}
+
+	/**
+	 * Map the file into memory, reporting the progress of scanning. Scanning stops
+	 * if the thread is interrupted.
+	 *
+	 * @param file     file.
+	 * @param progress receives the percentage of the file scanned, or null.
+	 * @return text of the file.
+	 * @throws IOException if the file cannot be read, does not fit into a
+	 *                     document or the thread was interrupted.
+	 */
+	public static MappedText map(File file, IntConsumer progress) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			int n = (int) ((size + SEGMENT - 1) >>> SEGMENT_SHIFT);
+			MappedByteBuffer[] segments = new MappedByteBuffer[n];
+			for (int i = 0; i < n; ++i) {
+				long pos = (long) i << SEGMENT_SHIFT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(SEGMENT, size - pos));
+			}
+			// The mapping remains valid after the channel is closed
+			MappedText text = new MappedText(segments, size);
+			text.scan(progress);
+			return text;
+		}
+	}
+
+	private MappedText(MappedByteBuffer[] segments, long size) {
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * Get the index of the beginnings of the lines found while scanning. The index
+	 * is handed over to the document that displays the text and is changed by it.
+	 *
+	 * @return index of the beginnings of the lines.
+	 */
+	public LineIndex getLineIndex() {
+		return lines;
+	}
+
+	/**
+	 * Get the length of the longest line in characters.
+	 *
+	 * @return length of the longest line.
+	 */
+	public int getMaxLineLength() {
+		return maxLineLength;
+	}
+
+	/**
+	 * Are there incorrect byte sequences in the file? Such a file is not written
+	 * back as it is: the sequences have become the characters U+FFFD.
+	 *
+	 * @return true/false.
+	 */
+	public boolean isMalformed() {
+		return malformed;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException(index);
+		if (ascii)
+			return (char) byteAt(index);
+
+		Block b = getBlock(index);
+		return b.chars[index - b.first];
+	}
+
+	/**
+	 * Copy characters into the array.
+	 *
+	 * @param start    index of the first character.
+	 * @param end      index after the last character.
+	 * @param dst      array.
+	 * @param dstBegin where to put the first character.
+	 */
+	public void getChars(int start, int end, char[] dst, int dstBegin) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException(start);
+		if (ascii) {
+			for (int i = start; i < end; ++i)
+				dst[dstBegin++] = (char) byteAt(i);
+			return;
+		}
+
+		while (start < end) {
+			Block b = getBlock(start);
+			int n = Math.min(end, b.first + b.count) - start;
+			System.arraycopy(b.chars, start - b.first, dst, dstBegin, n);
+			start += n;
+			dstBegin += n;
+		}
+	}
+
+	/**
+	 * A decoded block is given without copying, so the segment gets only the
+	 * characters of the block where the range begins. ASCII text is given by blocks
+	 * too.
+	 */
+	@Override
+	public void getText(int offset, int length, Segment txt) {
+		int start = offset;
+		int end = offset + length;
+		if (start < 0 || end > this.length || start >= end)
+			throw new IndexOutOfBoundsException(start);
+
+		Block b = getBlock(start);
+		txt.array = b.chars;
+		txt.offset = start - b.first;
+		txt.count = Math.min(end, b.first + b.count) - start;
+	}
+
+	/**
+	 * ASCII text is copied into the buffer directly from the file, without a block.
+	 * A block that is not the last decoded one is decoded into the buffer, if the
+	 * buffer is longer than a block, and is not kept.
+	 */
+	@Override
+	public void getText(int offset, int length, Segment txt, char[] buffer) {
+		int start = offset;
+		int end = offset + length;
+		if (start < 0 || end > this.length || start >= end)
+			throw new IndexOutOfBoundsException(start);
+		if (buffer == null) {
+			getText(offset, length, txt);
+			return;
+		}
+
+		if (ascii) {
+			int count = Math.min(length, buffer.length);
+			for (int i = 0; i < count; ++i)
+				buffer[i] = (char) byteAt(start + i);
+			txt.array = buffer;
+			txt.offset = 0;
+			txt.count = count;
+			return;
+		}
+
+		Block b = last;
+		if ((b == null || start < b.first || start >= b.first + b.count) && buffer.length > BLOCK) {
+			int k = findBlock(start);
+			int first = blockChar[k];
+			int count = decode(k, buffer);
+			txt.array = buffer;
+			txt.offset = start - first;
+			txt.count = Math.min(end, first + count) - start;
+			return;
+		}
+		getText(offset, length, txt);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		char[] chars = new char[end - start];
+		getChars(start, end, chars, 0);
+		return new String(chars);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+
+	/**
+	 * Scan the file: count the characters, remember the blocks and the beginnings
+	 * of the lines.
+	 */
+	private void scan(IntConsumer progress) throws IOException {
+		int blocks = (int) ((size + BLOCK - 1) / BLOCK);
+		blockChar = new int[blocks];
+		blockShift = new byte[blocks];
+		lines = new LineIndex();
+
+		ascii = true;
+		long chars = 0;
+		long lineStart = 0;
+		long pos = 0;
+		int block = 0;
+		while (pos < size) {
+			if (pos >= (long) block * BLOCK) {
+				blockChar[block] = (int) chars;
+				blockShift[block] = (byte) (pos - (long) block * BLOCK);
+				++block;
+
+				if ((block & 0xFF) == 0) {
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedIOException();
+					if (progress != null)
+						progress.accept((int) (pos * 100 / size));
+				}
+			}
+
+			byte b = byteAt(pos);
+			if (b >= 0) {
+				++pos;
+				++chars;
+				if (b == '\n') {
+					if (chars > MAX_LENGTH)
+						throw new IOException(Loc.get("the_file_is_too_large"));
+					maxLineLength = (int) Math.max(maxLineLength, chars - lineStart - 1);
+					lineStart = chars;
+					lines.addLine((int) chars);
+				}
+			} else {
+				ascii = false;
+				int seq = sequence(pos);
+				if (seq == MALFORMED)
+					malformed = true;
+				pos += seq & 0xFF;
+				chars += (seq >>> 8) & 3;
+			}
+		}
+		if (chars > MAX_LENGTH)
+			throw new IOException(Loc.get("the_file_is_too_large"));
+		// The last sequence may have covered the beginning of the last block
+		while (block < blocks)
+			blockChar[block++] = (int) chars;
+		maxLineLength = (int) Math.max(maxLineLength, chars - lineStart);
+		length = (int) chars;
+
+		if (ascii) {
+			blockChar = null;
+			blockShift = null;
+		}
+	}
+
+	/**
+	 * Determine the byte sequence beginning at the position.
+	 *
+	 * @param pos position of the first byte of the sequence.
+	 * @return number of bytes in the lower byte, number of characters (1 or 2) in
+	 *         the next one, the code point in the upper bits.
+	 */
+	private int sequence(long pos) {
+		int b0 = byteAt(pos) & 0xFF;
+		int n;
+		int cp;
+		int min;
+		if (b0 < 0x80) {
+			return 1 | (1 << 8) | (b0 << 10);
+		} else if (b0 >= 0xC2 && b0 <= 0xDF) {
+			n = 2;
+			cp = b0 & 0x1F;
+			min = 0x80;
+		} else if (b0 >= 0xE0 && b0 <= 0xEF) {
+			n = 3;
+			cp = b0 & 0x0F;
+			min = 0x800;
+		} else if (b0 >= 0xF0 && b0 <= 0xF4) {
+			n = 4;
+			cp = b0 & 0x07;
+			min = 0x10000;
+		} else {
+			return MALFORMED;
+		}
+
+		if (pos + n > size)
+			return MALFORMED;
+		for (int i = 1; i < n; ++i) {
+			int b = byteAt(pos + i) & 0xFF;
+			if ((b & 0xC0) != 0x80)
+				return MALFORMED;
+			cp = (cp << 6) | (b & 0x3F);
+		}
+		if (cp < min || cp > Character.MAX_CODE_POINT || (cp >= 0xD800 && cp <= 0xDFFF))
+			return MALFORMED;
+
+		return n | ((n == 4 ? 2 : 1) << 8) | (cp << 10);
+	}
+
+	/**
+	 * Get the decoded block containing the character.
+	 *
+	 * @param index index of the character.
+	 * @return decoded block.
+	 */
+	private Block getBlock(int index) {
+		// The last block is taken into a local variable: the text may be read from
+		// several threads, each one sees either the old or the new block.
+		Block b = last;
+		if (b != null && index >= b.first && index < b.first + b.count)
+			return b;
+
+		// In ASCII text a block of bytes is a block of characters
+		if (ascii) {
+			int first = index - index % BLOCK;
+			char[] chars = new char[Math.min(BLOCK, length - first)];
+			for (int i = 0; i < chars.length; ++i)
+				chars[i] = (char) byteAt(first + i);
+			b = new Block(first, chars);
+			last = b;
+			return b;
+		}
+
+		int k = findBlock(index);
+		int first = blockChar[k];
+		char[] chars = new char[(k + 1 < blockChar.length ? blockChar[k + 1] : length) - first];
+		decode(k, chars);
+
+		b = new Block(first, chars);
+		last = b;
+		return b;
+	}
+
+	/**
+	 * Find the block of bytes where the character begins.
+	 *
+	 * @param index index of the character.
+	 * @return index of the block.
+	 */
+	private int findBlock(int index) {
+		int k = Arrays.binarySearch(blockChar, index);
+		if (k < 0)
+			k = -k - 2;
+		// Empty blocks (inside a long sequence) have the same first character
+		while (k + 1 < blockChar.length && blockChar[k + 1] == index)
+			++k;
+		return k;
+	}
+
+	/**
+	 * Decode the characters of the block of bytes. A block has at most one
+	 * character more than bytes: a sequence of four bytes, two characters, may
+	 * begin at its last byte.
+	 *
+	 * @param k     index of the block.
+	 * @param chars array receiving the characters from its beginning.
+	 * @return number of characters.
+	 */
+	private int decode(int k, char[] chars) {
+		int count = (k + 1 < blockChar.length ? blockChar[k + 1] : length) - blockChar[k];
+		long pos = (long) k * BLOCK + blockShift[k];
+		int i = 0;
+		while (i < count) {
+			int seq = sequence(pos);
+			pos += seq & 0xFF;
+			int cp = seq >>> 10;
+			if (((seq >>> 8) & 3) == 2) {
+				chars[i++] = Character.highSurrogate(cp);
+				chars[i++] = Character.lowSurrogate(cp);
+			} else {
+				chars[i++] = (char) cp;
+			}
+		}
+		return count;
+	}
+
+	private byte byteAt(long pos) {
+		return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & (SEGMENT - 1)));
+	}
+
+	/**
+	 * Decoded block of characters.
+	 */
+	private static class Block {
+		Block(int first, char[] chars) {
+			this.first = first;
+			this.chars = chars;
+			this.count = chars.length;
+		}
+
+		final int first;
+		final char[] chars;
+		final int count;
+	}
+
+	/** Size of the part of the file mapped by one buffer */
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT = 1L << SEGMENT_SHIFT;
+
+	/** Size of a block in bytes */
+	private static final int BLOCK = 16 * 1024;
+
+	/** A document cannot be longer, it also needs room for the final line feed */
+	private static final long MAX_LENGTH = Integer.MAX_VALUE - 2;
+
+	/** An incorrect byte: one byte, one character U+FFFD */
+	private static final int MALFORMED = 1 | (1 << 8) | (0xFFFD << 10);
+
+	private final MappedByteBuffer[] segments;
+	private final long size;
+
+	private boolean ascii;
+	/** There are incorrect byte sequences */
+	private boolean malformed;
+	private int length;
+	private int maxLineLength;
+	private LineIndex lines;
+
+	/** Index of the first character of each block */
+	private int[] blockChar;
+	/** By how many bytes the first sequence of the block is shifted from its boundary */
+	private byte[] blockShift;
+
+	private volatile Block last;
+}
@@ -0,0 +1,218 @@
+package game.weekend.texteditor;
+
+import java.util.Arrays;
+
+/**
+ * Matches found in a text, sorted by their beginnings, that follow the changes
+ * of the text.
+ * <p>
+ * The matches are kept in arrays with a gap. The matches before the gap keep
+ * their offsets, the matches after the gap keep their distances from the end of
+ * the text. When the text changes, I move the gap to the place of the change,
+ * and the matches after it follow the change by themselves. Typing in one place
+ * costs almost nothing however many matches there are; only the matches between
+ * the old and the new place of the gap are moved.
+ */
+public class MatchList {
+
+	/**
+	 * Create an empty list for the text.
+	 *
+	 * @param length length of the text.
+	 */
+	public MatchList(int length) {
+		this.length = length;
+	}
+
+	/**
+	 * Get the number of matches.
+	 *
+	 * @return number of matches.
+	 */
+	public int size() {
+		return starts.length - (gapEnd - gapStart);
+	}
+
+	/**
+	 * Get the beginning of the match.
+	 *
+	 * @param i index of the match.
+	 * @return offset of the first character of the match.
+	 */
+	public int getStart(int i) {
+		return (i < gapStart) ? starts[i] : length - starts[i + gapEnd - gapStart];
+	}
+
+	/**
+	 * Get the end of the match.
+	 *
+	 * @param i index of the match.
+	 * @return offset after the last character of the match.
+	 */
+	public int getEnd(int i) {
+		return (i < gapStart) ? ends[i] : length - ends[i + gapEnd - gapStart];
+	}
+
+	/**
+	 * Get the length of the longest match there has been.
+	 *
+	 * @return length of the longest match.
+	 */
+	public int getLongest() {
+		return longest;
+	}
+
+	/**
+	 * Find the first match beginning not before the offset.
+	 *
+	 * @param offset offset.
+	 * @return index of the match, or size() if there is none.
+	 */
+	public int indexOf(int offset) {
+		int lo = 0;
+		int hi = size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (getStart(mid) < offset)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Add a match after all the others. Used while the text is searched from the
+	 * beginning.
+	 *
+	 * @param start beginning of the match.
+	 * @param end   end of the match.
+	 */
+	public void add(int start, int end) {
+		moveGap(size());
+		put(start, end);
+	}
+
+	/**
+	 * Follow a change of the text: the matches that the change touches are
+	 * removed, the matches after it are moved.
+	 *
+	 * @param offset   where the text was changed.
+	 * @param removed  number of removed characters.
+	 * @param inserted number of inserted characters.
+	 */
+	public void edit(int offset, int removed, int inserted) {
+		// A match beginning before the change may reach into it
+		moveGap(indexOf(offset - longest));
+		while (gapEnd < starts.length) {
+			int start = length - starts[gapEnd];
+			if (start >= offset + removed)
+				break;
+			int end = length - ends[gapEnd];
+			++gapEnd;
+			if (end <= offset)
+				put(start, end);
+		}
+		length += inserted - removed;
+	}
+
+	/**
+	 * Replace the matches lying inside a part of the text with the matches found
+	 * there anew.
+	 *
+	 * @param from  beginning of the part.
+	 * @param to    end of the part.
+	 * @param found beginnings and ends of the new matches in pairs, sorted, all of
+	 *              them inside the part.
+	 * @param n     number of the new matches.
+	 */
+	public void replace(int from, int to, int[] found, int n) {
+		moveGap(indexOf(from));
+
+		// The old matches beginning in the part; those reaching out of it stay
+		int[] kept = new int[16];
+		int k = 0;
+		while (gapEnd < starts.length) {
+			int start = length - starts[gapEnd];
+			if (start > to)
+				break;
+			int end = length - ends[gapEnd];
+			++gapEnd;
+			if (end > to) {
+				if (k == kept.length)
+					kept = Arrays.copyOf(kept, k * 2);
+				kept[k++] = start;
+				kept[k++] = end;
+			}
+		}
+
+		// Both lists are sorted, they are merged
+		int i = 0;
+		int j = 0;
+		while (i < k || j < 2 * n) {
+			if (j == 2 * n || (i < k && (kept[i] < found[j] || kept[i] == found[j] && kept[i + 1] < found[j + 1]))) {
+				put(kept[i], kept[i + 1]);
+				i += 2;
+			} else {
+				put(found[j], found[j + 1]);
+				j += 2;
+			}
+		}
+	}
+
+	/**
+	 * Put the match at the beginning of the gap.
+	 */
+	private void put(int start, int end) {
+		if (gapStart == gapEnd)
+			grow();
+		starts[gapStart] = start;
+		ends[gapStart] = end;
+		++gapStart;
+		longest = Math.max(longest, end - start);
+	}
+
+	/**
+	 * Move the gap so that it is before the match with the index.
+	 */
+	private void moveGap(int index) {
+		int gap = gapEnd - gapStart;
+		while (gapStart > index) {
+			--gapStart;
+			--gapEnd;
+			starts[gapEnd] = length - starts[gapStart];
+			ends[gapEnd] = length - ends[gapStart];
+		}
+		while (gapStart < index) {
+			starts[gapStart] = length - starts[gapStart + gap];
+			ends[gapStart] = length - ends[gapStart + gap];
+			++gapStart;
+			++gapEnd;
+		}
+	}
+
+	/**
+	 * Enlarge the arrays, the gap grows.
+	 */
+	private void grow() {
+		int capacity = Math.max(16, starts.length * 2);
+		int after = starts.length - gapEnd;
+		int[] s = Arrays.copyOf(starts, capacity);
+		int[] e = Arrays.copyOf(ends, capacity);
+		System.arraycopy(starts, gapEnd, s, capacity - after, after);
+		System.arraycopy(ends, gapEnd, e, capacity - after, after);
+		starts = s;
+		ends = e;
+		gapEnd = capacity - after;
+	}
+
+	/** Length of the text */
+	private int length;
+	/** The length of the longest match, it never decreases */
+	private int longest;
+
+	private int[] starts = new int[0];
+	private int[] ends = new int[0];
+	private int gapStart;
+	private int gapEnd;
+}
@@ -0,0 +1,670 @@
+package game.weekend.texteditor;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.JEditorPane;
+import javax.swing.SwingWorker;
+import javax.swing.event.CaretEvent;
+import javax.swing.event.CaretListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+
+/**
+ * All matches of the pattern in the text displayed in a JEditorPane: how many
+ * there are, which one is selected, and their highlighting.
+ * <p>
+ * The whole text is searched once, in the background, in a snapshot of the
+ * text. After that a change of the text is followed without searching the whole
+ * text again: the matches touched by the change are removed, the matches after
+ * it are moved (MatchList), and only the text around the change is searched.
+ * The changes made while the background search goes on are remembered and
+ * followed when it ends.
+ * <p>
+ * When a substring is lengthened, as it happens while the pattern is typed, the
+ * new matches can only be where the previous ones were, and only those places
+ * are checked.
+ * <p>
+ * There is one highlight for all the matches, and its painter paints only the
+ * matches that can be seen.
+ * <p>
+ * All occurrences of a substring are highlighted, even overlapping ones. For a
+ * regular expression, whole words or an approximate substring, the lines
+ * touched by the change are searched again, so a match reaching beyond them
+ * appears only when the search is repeated.
+ * <p>
+ * Instead of a pattern, a set of keywords can be followed. All of them are
+ * searched for at once by an Aho-Corasick automaton, the same way as one
+ * substring.
+ */
+public class MatchTracker implements DocumentListener, Highlighter.HighlightPainter {
+
+	/**
+	 * Create a tracker of the matches in the JEditorPane. Nothing is tracked until
+	 * track() is called.
+	 *
+	 * @param pane     JEditorPane.
+	 * @param onChange called when the matches or the selected match change.
+	 */
+	public MatchTracker(JEditorPane pane, Runnable onChange) {
+		this(pane, new Color(255, 200, 0, 110), onChange);
+	}
+
+	/**
+	 * Create a tracker of the matches in the JEditorPane, highlighting them with
+	 * the color.
+	 *
+	 * @param pane     JEditorPane.
+	 * @param color    color of the highlighting.
+	 * @param onChange called when the matches or the selected match change.
+	 */
+	public MatchTracker(JEditorPane pane, Color color, Runnable onChange) {
+		this.pane = pane;
+		this.onChange = onChange;
+		this.painter = new DefaultHighlighter.DefaultHighlightPainter(color);
+
+		// The matches belong to the text, the new text has none
+		pane.addPropertyChangeListener("document", new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				clear();
+			}
+		});
+
+		// The selected match is found by the caret
+		pane.addCaretListener(new CaretListener() {
+			@Override
+			public void caretUpdate(CaretEvent e) {
+				if (MatchTracker.this.pattern != null)
+					MatchTracker.this.onChange.run();
+			}
+		});
+	}
+
+	/**
+	 * Find all the matches of the pattern and follow them. If they are already
+	 * followed, nothing is done.
+	 *
+	 * @param pattern       pattern.
+	 * @param caseSensitive is the case of the letters significant.
+	 * @param regex         is the pattern a regular expression.
+	 * @param wholeWord     must a match be a whole word.
+	 * @param maxEdits      how many edits a match may have, 0 for an exact search.
+	 */
+	public void track(String pattern, boolean caseSensitive, boolean regex, boolean wholeWord, int maxEdits) {
+		if (doc == pane.getDocument() && pattern.equals(this.pattern) && caseSensitive == this.caseSensitive
+				&& regex == this.regex && wholeWord == this.wholeWord && maxEdits == this.maxEdits)
+			return;
+
+		// A longer substring can occur only where the shorter one does. The matches
+		// do not overlap, so they are all the occurrences only if the shorter
+		// substring cannot overlap itself.
+		int[] candidates = null;
+		if (matches != null && doc == pane.getDocument() && !regex && !this.regex && !wholeWord && !this.wholeWord
+				&& maxEdits == 0 && this.maxEdits == 0 && caseSensitive == this.caseSensitive && search != null
+				&& pattern.startsWith(this.pattern) && !search.canOverlap()) {
+			candidates = new int[matches.size()];
+			for (int i = 0; i < candidates.length; ++i)
+				candidates[i] = matches.getStart(i);
+		}
+
+		clear();
+		if (pattern.isEmpty())
+			return;
+
+		try {
+			if (regex || wholeWord || maxEdits > 0)
+				engine = SearchEngine.create(pattern, caseSensitive, regex, wholeWord, maxEdits);
+			else
+				search = new Horspool(pattern, caseSensitive);
+		} catch (PatternSyntaxException e) {
+			WeekendTextEditor.status.showMessage(Loc.get("invalid_regular_expression") + ": " + e.getDescription());
+			return;
+		} catch (IllegalArgumentException e) {
+			WeekendTextEditor.status.showMessage(Loc.get("too_long_for_fuzzy_search") + " " + FuzzySearch.MAX_LENGTH);
+			return;
+		}
+		this.pattern = pattern;
+		this.caseSensitive = caseSensitive;
+		this.regex = regex;
+		this.wholeWord = wholeWord;
+		this.maxEdits = maxEdits;
+
+		doc = pane.getDocument();
+		doc.addDocumentListener(this);
+		setHighlighted(highlighted);
+
+		edits = new ArrayList<int[]>();
+		scanning = new ScanTask(TextSnapshot.of(doc), pattern, caseSensitive, regex, wholeWord, maxEdits, candidates,
+				null);
+		scanning.execute();
+		onChange.run();
+	}
+
+	/**
+	 * Find all the occurrences of the keywords and follow them. If they are already
+	 * followed in this text, nothing is done.
+	 *
+	 * @param keywords automaton searching for the keywords.
+	 */
+	public void track(AhoCorasick keywords) {
+		if (doc == pane.getDocument() && keywords == this.keywords)
+			return;
+
+		clear();
+		if (keywords.isEmpty())
+			return;
+		this.keywords = keywords;
+
+		doc = pane.getDocument();
+		doc.addDocumentListener(this);
+		setHighlighted(highlighted);
+
+		edits = new ArrayList<int[]>();
+		scanning = new ScanTask(TextSnapshot.of(doc), null, false, false, false, 0, null, keywords);
+		scanning.execute();
+		onChange.run();
+	}
+
+	/**
+	 * Highlight the matches or remove the highlighting. The flag stays for the
+	 * next patterns.
+	 *
+	 * @param highlighted are the matches highlighted.
+	 */
+	public void setHighlighted(boolean highlighted) {
+		this.highlighted = highlighted;
+		if (highlighted && tag == null && doc != null) {
+			try {
+				tag = pane.getHighlighter().addHighlight(0, 0, this);
+			} catch (BadLocationException ignored) {
+			}
+		} else if (!highlighted && tag != null) {
+			pane.getHighlighter().removeHighlight(tag);
+			tag = null;
+		}
+		pane.repaint();
+	}
+
+	/**
+	 * Stop following the matches.
+	 */
+	public void clear() {
+		if (scanning != null) {
+			scanning.stop();
+			scanning = null;
+		}
+		if (doc != null) {
+			doc.removeDocumentListener(this);
+			doc = null;
+		}
+		if (tag != null) {
+			pane.getHighlighter().removeHighlight(tag);
+			tag = null;
+		}
+		matches = null;
+		edits = null;
+		search = null;
+		engine = null;
+		keywords = null;
+		pattern = null;
+		pane.repaint();
+		onChange.run();
+	}
+
+	/**
+	 * Get the matches.
+	 *
+	 * @return matches, or null if nothing is followed or the text is still being
+	 *         searched.
+	 */
+	public MatchList getMatches() {
+		return matches;
+	}
+
+	/**
+	 * Get the index of the selected match. The match is found by a binary search.
+	 *
+	 * @return index of the match, or -1 if the selection is not a match.
+	 */
+	public int getSelected() {
+		if (matches == null)
+			return -1;
+		int start = pane.getSelectionStart();
+		int end = pane.getSelectionEnd();
+		for (int i = matches.indexOf(start); i < matches.size() && matches.getStart(i) == start; ++i)
+			if (matches.getEnd(i) == end)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Get the text for the status bar: the number of matches and the selected one.
+	 *
+	 * @return text, empty if nothing is followed.
+	 */
+	public String getCounter() {
+		if (pattern == null)
+			return "";
+		if (matches == null)
+			return Loc.get("counting_matches");
+		int i = getSelected();
+		if (i < 0)
+			return String.format("%s: %,d", Loc.get("matches"), matches.size());
+		return String.format("%s %,d %s %,d", Loc.get("match"), i + 1, Loc.get("of"), matches.size());
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		changed(e.getOffset(), 0, e.getLength());
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		changed(e.getOffset(), e.getLength(), 0);
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+	}
+
+	/**
+	 * Paint the matches that are seen.
+	 */
+	@Override
+	public void paint(Graphics g, int p0, int p1, Shape bounds, JTextComponent c) {
+		MatchList list = matches;
+		if (list == null || list.size() == 0)
+			return;
+
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = bounds.getBounds();
+		int first = c.viewToModel2D(new Point(clip.x, clip.y));
+		int last = c.viewToModel2D(new Point(clip.x + clip.width, clip.y + clip.height));
+
+		for (int i = list.indexOf(Math.max(first - list.getLongest(), 0)); i < list.size(); ++i) {
+			int start = list.getStart(i);
+			if (start > last)
+				break;
+			int end = list.getEnd(i);
+			if (end > first && end > start)
+				painter.paint(g, start, end, bounds, c);
+		}
+	}
+
+	/**
+	 * Follow the change of the text.
+	 *
+	 * @param offset   where the text was changed.
+	 * @param removed  number of removed characters.
+	 * @param inserted number of inserted characters.
+	 */
+	private void changed(int offset, int removed, int inserted) {
+		// The snapshot being searched has not been changed
+		if (scanning != null) {
+			edits.add(new int[] { offset, removed, inserted });
+			return;
+		}
+		if (matches == null)
+			return;
+
+		matches.edit(offset, removed, inserted);
+		int[] part = widen(offset, offset + inserted);
+		if (part[1] - part[0] > RESCAN) {
+			// A large part, such as a pasted file, is searched in the background like
+			// the whole text, the other matches wait for it
+			edits = new ArrayList<int[]>();
+			scanning = new ScanTask(TextSnapshot.of(doc), matches, part[0], part[1]);
+			matches = null;
+			scanning.execute();
+		} else {
+			rescan(offset, offset + inserted);
+		}
+		pane.repaint();
+		onChange.run();
+	}
+
+	/**
+	 * Search the text around the changed part again.
+	 *
+	 * @param from beginning of the changed part.
+	 * @param to   end of the changed part.
+	 */
+	private void rescan(int from, int to) {
+		int[] part = widen(from, to);
+		if (search != null) {
+			relink(new DocumentChars(doc), matches, part[0], part[1], search);
+			return;
+		}
+
+		int[] found;
+		try {
+			found = find(new DocumentChars(doc), part[0], part[1], engine, keywords);
+		} catch (RegexSearch.Timeout e) {
+			WeekendTextEditor.status.showMessage(Loc.get("the_search_took_too_long"));
+			found = new int[0];
+		}
+		matches.replace(part[0], part[1], found, found.length / 2);
+	}
+
+	/**
+	 * Widen the changed part so that it has every match that may touch it.
+	 *
+	 * @param from beginning of the changed part.
+	 * @param to   end of the changed part.
+	 * @return beginning and end of the part to search.
+	 */
+	private int[] widen(int from, int to) {
+		int length = doc.getLength();
+		if (engine != null) {
+			// Whole lines are searched
+			Element root = doc.getDefaultRootElement();
+			from = root.getElement(root.getElementIndex(from)).getStartOffset();
+			to = Math.min(root.getElement(root.getElementIndex(to)).getEndOffset(), length);
+			return new int[] { from, to };
+		}
+
+		// An occurrence may begin before the changed part and end after it
+		int m = (keywords != null) ? keywords.getLongest() : pattern.length();
+		return new int[] { Math.max(from - m + 1, 0), Math.min(to + m - 1, length) };
+	}
+
+	/**
+	 * Search a part of the text for the substring again. The matches do not
+	 * overlap, as those that find and replace take: each one begins not before the
+	 * end of the previous one. So the search begins at the end of the match before
+	 * the part, and goes on past the part until it comes to a match of the list,
+	 * after which the matches are the same as before.
+	 *
+	 * @param text   text.
+	 * @param list   matches, those of the searched part are replaced.
+	 * @param from   beginning of the part.
+	 * @param to     end of the part.
+	 * @param search search for the substring.
+	 */
+	private static void relink(DocumentChars text, MatchList list, int from, int to, Horspool search) {
+		int m = search.length();
+		int k = list.indexOf(from);
+		int pos = (k > 0) ? Math.max(from, list.getEnd(k - 1)) : from;
+
+		int[] found = new int[16];
+		int n = 0;
+		int stop = text.length();
+		for (int i = search.indexOf(text, pos, stop); i >= 0; i = search.indexOf(text, i + m, stop)) {
+			// After the part the text has not changed
+			if (i >= to) {
+				int j = list.indexOf(i);
+				if (j < list.size() && list.getStart(j) == i) {
+					stop = i;
+					break;
+				}
+			}
+			if (2 * n == found.length)
+				found = Arrays.copyOf(found, 4 * n);
+			found[2 * n] = i;
+			found[2 * n + 1] = i + m;
+			++n;
+		}
+		list.replace(from, stop, found, n);
+	}
+
+	/**
+	 * Find the matches lying in a part of the text, either of the engine or of the
+	 * keywords. A substring is searched for by relink().
+	 *
+	 * @param text     text.
+	 * @param from     beginning of the part.
+	 * @param to       end of the part.
+	 * @param engine   search for a regular expression, for whole words or an
+	 *                 approximate one, or null.
+	 * @param keywords search for the keywords, or null.
+	 * @return beginnings and ends of the matches in pairs.
+	 */
+	private static int[] find(DocumentChars text, int from, int to, SearchEngine engine, AhoCorasick keywords) {
+		if (keywords != null)
+			return keywords.findAll(text, from, to);
+
+		int[] found = new int[16];
+		int n = 0;
+		for (int i = engine.find(text, from, to); i >= 0; i = engine.findNext()) {
+			if (2 * n == found.length)
+				found = Arrays.copyOf(found, 4 * n);
+			found[2 * n] = i;
+			found[2 * n + 1] = engine.end();
+			++n;
+		}
+		return Arrays.copyOf(found, 2 * n);
+	}
+
+	/**
+	 * Where the offset is after the change of the text.
+	 *
+	 * @param pos  offset before the change.
+	 * @param edit where the text was changed, how many characters were removed and
+	 *             inserted.
+	 * @return offset after the change.
+	 */
+	private static int follow(int pos, int[] edit) {
+		if (pos < edit[0])
+			return pos;
+		if (pos >= edit[0] + edit[1])
+			return pos + edit[2] - edit[1];
+		return edit[0];
+	}
+
+	/**
+	 * Search for all the matches in a snapshot of the text, or for the matches in
+	 * a part of it.
+	 */
+	private class ScanTask extends SwingWorker<MatchList, Void> {
+
+		ScanTask(TextSnapshot text, String pattern, boolean caseSensitive, boolean regex, boolean wholeWord,
+				int maxEdits, int[] candidates, AhoCorasick keywords) {
+			this.text = text;
+			this.pattern = pattern;
+			this.caseSensitive = caseSensitive;
+			this.regex = regex;
+			this.wholeWord = wholeWord;
+			this.maxEdits = maxEdits;
+			this.candidates = candidates;
+			this.keywords = keywords;
+			this.parallel = (regex || wholeWord || maxEdits > 0 || candidates != null || keywords != null) ? null
+					: new ParallelSearch(new Horspool(pattern, caseSensitive));
+			this.base = null;
+			this.from = 0;
+			this.to = 0;
+		}
+
+		/**
+		 * Create a search for the matches in a part of the text, with the pattern
+		 * followed now.
+		 *
+		 * @param base the matches of the rest of the text; those of the part are
+		 *             replaced.
+		 */
+		ScanTask(TextSnapshot text, MatchList base, int from, int to) {
+			this.text = text;
+			this.pattern = MatchTracker.this.pattern;
+			this.caseSensitive = MatchTracker.this.caseSensitive;
+			this.regex = MatchTracker.this.regex;
+			this.wholeWord = MatchTracker.this.wholeWord;
+			this.maxEdits = MatchTracker.this.maxEdits;
+			this.candidates = null;
+			this.keywords = MatchTracker.this.keywords;
+			this.parallel = null;
+			this.base = base;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Stop the search.
+		 */
+		void stop() {
+			cancel(true);
+			if (parallel != null)
+				parallel.cancel();
+		}
+
+		@Override
+		protected MatchList doInBackground() {
+			int n = text.length();
+			if (base != null) {
+				// The searches of the tracker are used by the event dispatch thread
+				Horspool h = null;
+				SearchEngine r = null;
+				if (keywords == null && (regex || wholeWord || maxEdits > 0))
+					r = SearchEngine.create(pattern, caseSensitive, regex, wholeWord, maxEdits);
+				else if (keywords == null)
+					h = new Horspool(pattern, caseSensitive);
+				DocumentChars chars = new DocumentChars(text, 0, n);
+				if (h != null) {
+					relink(chars, base, from, to, h);
+					return base;
+				}
+				int[] found = find(chars, from, to, r, keywords);
+				base.replace(from, to, found, found.length / 2);
+				return base;
+			}
+
+			MatchList list = new MatchList(n);
+			if (keywords != null) {
+				// The text is read once for all the keywords, part by part to be able to
+				// stop; a part takes the occurrences beginning in it
+				DocumentChars chars = new DocumentChars(text, 0, n);
+				int m = keywords.getLongest();
+				for (int from = 0; from < n && !isCancelled(); from += PART) {
+					int to = Math.min(from + PART, n);
+					int[] found = keywords.findAll(chars, from, Math.min(to + m - 1, n));
+					for (int i = 0; i < found.length && found[i] < to; i += 2)
+						list.add(found[i], found[i + 1]);
+				}
+			} else if (regex || wholeWord || maxEdits > 0) {
+				SearchEngine r = SearchEngine.create(pattern, caseSensitive, regex, wholeWord, maxEdits);
+				DocumentChars chars = new DocumentChars(text, 0, n);
+				for (int i = r.find(chars, 0, n); i >= 0 && !isCancelled(); i = r.findNext())
+					list.add(i, r.end());
+			} else if (candidates != null) {
+				// Only the matches of the previous pattern are checked, the matches that
+				// overlap the one taken before them are not taken
+				Horspool h = new Horspool(pattern, caseSensitive);
+				DocumentChars chars = new DocumentChars(text, 0, n);
+				int end = 0;
+				for (int i = 0; i < candidates.length && !isCancelled(); ++i) {
+					if (candidates[i] >= end && h.matchesAt(chars, candidates[i])) {
+						end = candidates[i] + pattern.length();
+						list.add(candidates[i], end);
+					}
+				}
+			} else {
+				// The text is searched by all the processors
+				int m = pattern.length();
+				for (int i : parallel.findAll(text))
+					list.add(i, i + m);
+			}
+			return list;
+		}
+
+		@Override
+		protected void done() {
+			if (scanning != this)
+				return;
+			scanning = null;
+
+			try {
+				matches = get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RegexSearch.Timeout)
+					WeekendTextEditor.status.showMessage(Loc.get("the_search_took_too_long"));
+				clear();
+				return;
+			} catch (InterruptedException e) {
+				clear();
+				return;
+			}
+
+			// The changes made during the search; the changed parts move with the next
+			// changes
+			List<int[]> changed = new ArrayList<int[]>();
+			for (int[] edit : edits) {
+				matches.edit(edit[0], edit[1], edit[2]);
+				for (int[] part : changed) {
+					part[0] = follow(part[0], edit);
+					part[1] = follow(part[1], edit);
+				}
+				changed.add(new int[] { edit[0], edit[0] + edit[2] });
+			}
+			edits.clear();
+			for (int[] part : changed)
+				rescan(part[0], part[1]);
+
+			pane.repaint();
+			onChange.run();
+		}
+
+		private final TextSnapshot text;
+		private final String pattern;
+		private final boolean caseSensitive;
+		private final boolean regex;
+		private final boolean wholeWord;
+		private final int maxEdits;
+		/** Where the pattern can occur, or null if it can occur anywhere */
+		private final int[] candidates;
+		/** Keywords searched for instead of the pattern, or null */
+		private final AhoCorasick keywords;
+		/** Search for a substring in the whole text */
+		private final ParallelSearch parallel;
+		/** The matches outside the part searched, or null if the whole text is */
+		private final MatchList base;
+		private final int from;
+		private final int to;
+	}
+
+	/** Size of a part of the text searched for the keywords at a time */
+	private static final int PART = 1024 * 1024;
+	/**
+	 * The longest part searched again at once after a change, a longer one is
+	 * searched in the background
+	 */
+	private static final int RESCAN = 256 * 1024;
+
+	private final JEditorPane pane;
+	/** Painter of one match */
+	private final Highlighter.HighlightPainter painter;
+	private final Runnable onChange;
+	private boolean highlighted;
+
+	private Document doc;
+	private Object tag;
+
+	private String pattern;
+	private boolean caseSensitive;
+	private boolean regex;
+	private boolean wholeWord;
+	private int maxEdits;
+	private Horspool search;
+	/** Search for a regular expression, for whole words or an approximate one */
+	private SearchEngine engine;
+	private AhoCorasick keywords;
+
+	private MatchList matches;
+	private ScanTask scanning;
+	private List<int[]> edits;
+}
@@ -55,5 +55,18 @@ public class Mes {
 				JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
 	}
 
+	/**
+	 * Ask for a value.
+	 * 
+	 * @param message message text.
+	 * @param initial initial value.
+	 * @return the value entered or null if the user declined.
+	 */
+	public static String inp(String message, String initial) {
+		Object value = JOptionPane.showInputDialog(frame, message, WeekendTextEditor.APP_NAME,
+				JOptionPane.QUESTION_MESSAGE, null, null, initial);
+		return (value == null) ? null : value.toString();
+	}
+
 	private static JFrame frame;
 }
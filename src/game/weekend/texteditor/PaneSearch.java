@@ -0,0 +1,204 @@
+package game.weekend.texteditor;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * Search for the pattern in the text displayed in a JEditorPane and selection
+ * of the matches. Finder and Replacer each have one.
+ * <p>
+ * The search (SearchEngine) is created anew only when the pattern or its
+ * attributes change.
+ */
+public class PaneSearch {
+
+	/**
+	 * Create a search in the JEditorPane.
+	 *
+	 * @param pane JEditorPane.
+	 */
+	public PaneSearch(JEditorPane pane) {
+		this.pane = pane;
+	}
+
+	/**
+	 * Set the pattern and its attributes.
+	 *
+	 * @param pattern       substring or regular expression.
+	 * @param caseSensitive is the case of the letters significant.
+	 * @param regex         is the pattern a regular expression.
+	 * @param wholeWord     must a match be a whole word.
+	 * @param edits         how many edits a match may have, 0 for an exact search.
+	 */
+	public void setPattern(String pattern, boolean caseSensitive, boolean regex, boolean wholeWord, int edits) {
+		if (!pattern.equals(this.pattern) || caseSensitive != this.caseSensitive || regex != this.regex
+				|| wholeWord != this.wholeWord || edits != this.edits)
+			search = null;
+		this.pattern = pattern;
+		this.caseSensitive = caseSensitive;
+		this.regex = regex;
+		this.wholeWord = wholeWord;
+		this.edits = edits;
+	}
+
+	/**
+	 * Get the pattern.
+	 *
+	 * @return substring or regular expression.
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * Reset the search start position to its original state.
+	 */
+	public void resetPosition() {
+		position = -1;
+	}
+
+	/**
+	 * Get the search for the pattern.
+	 *
+	 * @return search, or null if the regular expression is incorrect or the
+	 *         substring is too long for an approximate search.
+	 */
+	public SearchEngine getSearch() {
+		try {
+			if (search == null)
+				search = SearchEngine.create(pattern, caseSensitive, regex, wholeWord, edits);
+			return search;
+		} catch (PatternSyntaxException e) {
+			WeekendTextEditor.status.showMessage(Loc.get("invalid_regular_expression") + ": " + e.getDescription());
+			return null;
+		} catch (IllegalArgumentException e) {
+			WeekendTextEditor.status.showMessage(Loc.get("too_long_for_fuzzy_search") + " " + FuzzySearch.MAX_LENGTH);
+			return null;
+		}
+	}
+
+	/**
+	 * Search forward from the caret. A repeated search begins after the match
+	 * found last.
+	 */
+	public void findForward() {
+		try {
+			if (pattern.trim().length() > 0) {
+
+				int carretPos = pane.getCaret().getMark();
+				if (position == carretPos)
+					++position;
+				else
+					position = carretPos;
+
+				SearchEngine s = getSearch();
+				if (s != null) {
+					int i = s.indexOf(pane.getDocument(), position);
+					showResult(i, i < 0 ? i : s.end());
+				}
+			}
+		} catch (BadLocationException ignored) {
+		} catch (RegexSearch.Timeout e) {
+			WeekendTextEditor.status.showMessage(Loc.get("the_search_took_too_long"));
+		}
+	}
+
+	/**
+	 * Search backwards from the caret.
+	 */
+	public void findBack() {
+		try {
+			if (pattern.trim().length() > 0) {
+
+				position = pane.getCaret().getDot();
+				if (position != pane.getCaret().getMark())
+					--position;
+
+				// The match must end before the position
+				SearchEngine s = getSearch();
+				if (s != null) {
+					int i = s.lastIndexOf(pane.getDocument(), position);
+					showResult(i, i < 0 ? i : s.end());
+				}
+			}
+		} catch (BadLocationException ignored) {
+		} catch (RegexSearch.Timeout e) {
+			WeekendTextEditor.status.showMessage(Loc.get("the_search_took_too_long"));
+		}
+	}
+
+	/**
+	 * Does the selection match the pattern? If it does, the selection becomes the
+	 * current match, and the replacement may refer to its groups.
+	 *
+	 * @return true/false.
+	 */
+	public boolean selectionMatches() {
+		int start = pane.getSelectionStart();
+		int end = pane.getSelectionEnd();
+		if (start == end || getSearch() == null)
+			return false;
+		try {
+			return search.matches(getContent(), start, end);
+		} catch (RegexSearch.Timeout e) {
+			WeekendTextEditor.status.showMessage(Loc.get("the_search_took_too_long"));
+			return false;
+		}
+	}
+
+	/**
+	 * Get the text displayed in the JEditorPane. The text is not copied, it is
+	 * read from the document as the search goes.
+	 *
+	 * @return text displayed in JEditorPane.
+	 */
+	public DocumentChars getContent() {
+		Document d = pane.getDocument();
+		if (content == null || content.getDocument() != d)
+			content = new DocumentChars(d);
+		else
+			content.reset();
+		return content;
+	}
+
+	/**
+	 * Select the found text in JEditorPane, or say that nothing is found.
+	 *
+	 * @param i   the position at which the found text begins, or -1.
+	 * @param end the position after the found text.
+	 * @throws BadLocationException inherited exception.
+	 */
+	public void showResult(int i, int end) throws BadLocationException {
+		if (i >= 0) {
+			position = i;
+			WeekendTextEditor.status.showMessage("");
+
+			// Make visible on screen
+			Rectangle2D rect2D = pane.modelToView2D(position);
+			Rectangle rect = new Rectangle((int) rect2D.getX(), (int) rect2D.getY(), (int) rect2D.getWidth(),
+					(int) rect2D.getHeight());
+			pane.scrollRectToVisible(rect);
+
+			pane.select(position, end);
+		} else
+			WeekendTextEditor.status.showMessage(Loc.get("unable_to_find") + " \"" + pattern + "\"");
+	}
+
+	private final JEditorPane pane;
+
+	private String pattern = "";
+	private boolean caseSensitive = false;
+	private boolean regex = false;
+	private boolean wholeWord = false;
+	private int edits = 0;
+
+	private int position = -1;
+
+	private SearchEngine search;
+	private DocumentChars content;
+}
@@ -0,0 +1,254 @@
+package game.weekend.texteditor;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Search for a substring in a snapshot of the text by all the processors.
+ * <p>
+ * The text is divided into parts of CHUNK characters that are searched at the
+ * same time in the ForkJoinPool. A part is read together with the beginning of
+ * the next one (the length of the pattern less one), and only the occurrences
+ * beginning in the part itself are taken, so an occurrence on the border is
+ * found once. The results of the parts are joined in the order of the parts.
+ * <p>
+ * The occurrences of all of them are taken as find and replace take them, one
+ * after another without overlapping. Which occurrence of a part is the first to
+ * take depends on the parts before it, so the parts find even overlapping
+ * occurrences, and the joined result is thinned out once.
+ * <p>
+ * The snapshot, the search and the parts of the result are not changed while
+ * the threads read them, so the threads need no locks.
+ */
+public class ParallelSearch {
+
+	/**
+	 * Prepare the search.
+	 *
+	 * @param search search for the substring.
+	 */
+	public ParallelSearch(Horspool search) {
+		this.search = search;
+	}
+
+	/**
+	 * Stop the search. The parts that have not yet been searched are skipped.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Find all occurrences that do not overlap: each one begins not before the end
+	 * of the previous one, as when they are found one after another.
+	 *
+	 * @param text text.
+	 * @return beginnings of the occurrences in ascending order.
+	 */
+	public int[] findAll(TextSnapshot text) {
+		int[] found = POOL.invoke(new FindAll(text, 0, text.length()));
+		int m = search.length();
+		int n = 0;
+		int end = 0;
+		for (int i : found) {
+			if (i >= end) {
+				found[n++] = i;
+				end = i + m;
+			}
+		}
+		return Arrays.copyOf(found, n);
+	}
+
+	/**
+	 * Find the first occurrence beginning not before the offset. The nearest part
+	 * is searched first by the calling thread, the rest of the text only if there
+	 * is no occurrence in it.
+	 *
+	 * @param text text.
+	 * @param from where to begin.
+	 * @return offset of the occurrence or -1.
+	 */
+	public int indexOf(TextSnapshot text, int from) {
+		from = Math.max(from, 0);
+		int to = Math.min(from + CHUNK, text.length());
+		int i = indexOf(text, from, to);
+		if (i >= 0 || to == text.length())
+			return i;
+
+		AtomicInteger best = new AtomicInteger(Integer.MAX_VALUE);
+		POOL.invoke(new First(text, to, text.length(), best));
+		return (best.get() == Integer.MAX_VALUE) ? -1 : best.get();
+	}
+
+	/**
+	 * Find the last occurrence ending not after the offset. The nearest part is
+	 * searched first by the calling thread.
+	 *
+	 * @param text text.
+	 * @param end  where the occurrence must end.
+	 * @return offset of the occurrence or -1.
+	 */
+	public int lastIndexOf(TextSnapshot text, int end) {
+		end = Math.min(end, text.length());
+		// Beginnings of the occurrences that end not after the offset
+		int to = end - search.length() + 1;
+		int from = Math.max(to - CHUNK, 0);
+		int i = lastIndexOf(text, from, to, end);
+		if (i >= 0 || from == 0)
+			return i;
+
+		AtomicInteger best = new AtomicInteger(-1);
+		POOL.invoke(new Last(text, 0, from, end, best));
+		return best.get();
+	}
+
+	/**
+	 * Find the first occurrence beginning in the part.
+	 */
+	private int indexOf(TextSnapshot text, int from, int to) {
+		if (from >= to)
+			return -1;
+		DocumentChars chars = new DocumentChars(text, from, Math.min(to + search.length() - 1, text.length()));
+		int i = search.indexOf(chars, 0);
+		return (i < 0) ? -1 : from + i;
+	}
+
+	/**
+	 * Find the last occurrence beginning in the part and ending not after the
+	 * offset.
+	 */
+	private int lastIndexOf(TextSnapshot text, int from, int to, int end) {
+		if (from >= to)
+			return -1;
+		DocumentChars chars = new DocumentChars(text, from, Math.min(to + search.length() - 1, end));
+		int i = search.lastIndexOf(chars, chars.length());
+		return (i < 0) ? -1 : from + i;
+	}
+
+	/**
+	 * Search for all the occurrences beginning in a part of the text, even
+	 * overlapping ones.
+	 */
+	@SuppressWarnings("serial")
+	private class FindAll extends RecursiveTask<int[]> {
+
+		FindAll(TextSnapshot text, int from, int to) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (to - from > CHUNK) {
+				int mid = from + (to - from) / 2;
+				FindAll left = new FindAll(text, from, mid);
+				left.fork();
+				int[] right = new FindAll(text, mid, to).compute();
+				int[] found = left.join();
+				int[] all = Arrays.copyOf(found, found.length + right.length);
+				System.arraycopy(right, 0, all, found.length, right.length);
+				return all;
+			}
+
+			int[] found = new int[16];
+			int n = 0;
+			if (!cancelled && from < to) {
+				int m = search.length();
+				DocumentChars chars = new DocumentChars(text, from, Math.min(to + m - 1, text.length()));
+				for (int i = search.indexOf(chars, 0); i >= 0 && from + i < to; i = search.indexOf(chars, i + 1)) {
+					if (n == found.length)
+						found = Arrays.copyOf(found, n * 2);
+					found[n++] = from + i;
+				}
+			}
+			return Arrays.copyOf(found, n);
+		}
+
+		private final TextSnapshot text;
+		private final int from;
+		private final int to;
+	}
+
+	/**
+	 * Search for the first occurrence. A part is not searched if an occurrence has
+	 * already been found before it.
+	 */
+	@SuppressWarnings("serial")
+	private class First extends RecursiveTask<Void> {
+
+		First(TextSnapshot text, int from, int to, AtomicInteger best) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+			this.best = best;
+		}
+
+		@Override
+		protected Void compute() {
+			if (cancelled || from >= best.get())
+				return null;
+			if (to - from > CHUNK) {
+				int mid = from + (to - from) / 2;
+				invokeAll(new First(text, from, mid, best), new First(text, mid, to, best));
+				return null;
+			}
+			int i = indexOf(text, from, to);
+			if (i >= 0)
+				best.accumulateAndGet(i, Math::min);
+			return null;
+		}
+
+		private final TextSnapshot text;
+		private final int from;
+		private final int to;
+		private final AtomicInteger best;
+	}
+
+	/**
+	 * Search for the last occurrence. A part is not searched if an occurrence has
+	 * already been found after it.
+	 */
+	@SuppressWarnings("serial")
+	private class Last extends RecursiveTask<Void> {
+
+		Last(TextSnapshot text, int from, int to, int end, AtomicInteger best) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+			this.end = end;
+			this.best = best;
+		}
+
+		@Override
+		protected Void compute() {
+			if (cancelled || to <= best.get())
+				return null;
+			if (to - from > CHUNK) {
+				int mid = from + (to - from) / 2;
+				invokeAll(new Last(text, from, mid, end, best), new Last(text, mid, to, end, best));
+				return null;
+			}
+			int i = lastIndexOf(text, from, to, end);
+			if (i >= 0)
+				best.accumulateAndGet(i, Math::max);
+			return null;
+		}
+
+		private final TextSnapshot text;
+		private final int from;
+		private final int to;
+		private final int end;
+		private final AtomicInteger best;
+	}
+
+	/** Size of a part of the text searched by one thread */
+	private static final int CHUNK = 4 * 1024 * 1024;
+
+	private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+	private final Horspool search;
+	private volatile boolean cancelled;
+}
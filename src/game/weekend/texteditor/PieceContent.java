@@ -0,0 +1,1226 @@
+package game.weekend.texteditor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.CharBuffer;
+import java.text.Bidi;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Content of a document kept as a piece table.
+ * <p>
+ * The original text (a String or a memory-mapped file) is never copied and
+ * never changed. The edited text is described by a sequence of pieces, each of
+ * which refers either to a part of the original text or to a part of the
+ * buffer where all the inserted text is appended. An edit splits a piece and
+ * adds or removes pieces, so it costs as much as the edit is large, wherever it
+ * is made. The text is not moved, as it is in the gap buffer of an ordinary
+ * document when the edits jump between distant places.
+ * <p>
+ * The pieces are kept in a balanced tree (a treap: a search tree ordered by the
+ * position of the piece and a heap ordered by a random priority) whose nodes
+ * know the length of the text of their subtrees. So the piece at an offset is
+ * found, and pieces are put in or taken out, in logarithmic time however many
+ * pieces the edits have made.
+ * <p>
+ * Neither the original text nor the appended text ever changes, so a piece
+ * remains valid forever. Therefore undo remembers the removed pieces instead of
+ * copying the removed text, and a snapshot of the text is a copy of the list of
+ * pieces.
+ * <p>
+ * A large inserted text, such as a pasted file or the result of "Replace all",
+ * is appended to a journal on disk instead of the buffer (Journal). Its pieces,
+ * in the text and in the history of the changes, are then read back through
+ * memory mapping only when they are needed, and the heap keeps only their
+ * descriptions.
+ * <p>
+ * The content also keeps the index of the beginnings of the lines up to date.
+ */
+public class PieceContent implements AbstractDocument.Content {
+
+	/**
+	 * Create the content of the text.
+	 *
+	 * @param text original text.
+	 */
+	public PieceContent(String text) {
+		this(ArraySnapshot.of(text), new LineIndex());
+		lines.insertUpdate(0, text);
+	}
+
+	/**
+	 * Create the content of the mapped text.
+	 *
+	 * @param text mapped text or null for an empty content.
+	 */
+	public PieceContent(MappedText text) {
+		this(text, (text == null) ? new LineIndex() : text.getLineIndex());
+	}
+
+	private PieceContent(TextSnapshot original, LineIndex lines) {
+		this.original = original;
+		this.lines = lines;
+
+		if (original != null && original.length() > 0)
+			root = new Node(ORIGINAL, 0, original.length(), random());
+
+		// Like any content, this one ends with a line feed that the document does not
+		// show
+		added.append("\n");
+		root = merge(root, new Node(ADDED, 0, 1, random()));
+		length = (original == null ? 0 : original.length()) + 1;
+	}
+
+	/**
+	 * Get the index of the beginnings of the lines.
+	 *
+	 * @return index of the beginnings of the lines.
+	 */
+	public LineIndex getLineIndex() {
+		return lines;
+	}
+
+	/**
+	 * Close the journal when the text is no longer edited. The snapshots taken
+	 * before can still be read, and a large text inserted afterwards goes to the
+	 * buffer.
+	 */
+	public void close() {
+		journalFailed = true;
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException ignored) {
+				// The file is deleted when the program ends
+			}
+		}
+	}
+
+	/**
+	 * Is the text the original text, not edited or edited back to it? The text is
+	 * taken for edited as soon as the original piece is split, even if the same
+	 * characters are put back.
+	 *
+	 * @return true/false.
+	 */
+	public boolean isOriginal() {
+		int n = (original == null) ? 0 : original.length();
+		if (length != n + 1 || root.count != ((n > 0) ? 2 : 1))
+			return false;
+		Node last = root;
+		while (last.right != null)
+			last = last.right;
+		if (last.source != ADDED || last.start != 0)
+			return false;
+		Node first = root;
+		while (first.left != null)
+			first = first.left;
+		return n == 0 || (first.source == ORIGINAL && first.start == 0);
+	}
+
+	@Override
+	public Position createPosition(int offset) throws BadLocationException {
+		if (offset < 0 || offset > length)
+			throw new BadLocationException("Invalid position", offset);
+		purgeMarks();
+		Pos pos = new Pos();
+		pos.mark = new Mark(pos);
+		addMark(pos.mark, offset);
+		return pos;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public UndoableEdit insertString(int where, String str) throws BadLocationException {
+		if (where < 0 || where >= length)
+			throw new BadLocationException("Invalid insert", where);
+		insert(where, str);
+		return new InsertUndo(where, str.length());
+	}
+
+	/**
+	 * Start a text that is written part by part, such as the result of "Replace
+	 * all", and then inserted at once by insertText(). The characters go to the
+	 * buffer or, when there are many of them, to the journal as they are written,
+	 * so the text is never held on the heap as a whole.
+	 *
+	 * @return text to write.
+	 */
+	public Text newText() {
+		return new Text();
+	}
+
+	/**
+	 * Insert a text written beforehand, like insertString().
+	 *
+	 * @param where offset.
+	 * @param text  text written; it is inserted only once.
+	 * @return undo of the insertion.
+	 * @throws BadLocationException if the offset is not in the text.
+	 */
+	public UndoableEdit insertText(int where, Text text) throws BadLocationException {
+		if (where < 0 || where >= length)
+			throw new BadLocationException("Invalid insert", where);
+		int len = text.length();
+		insert(where, text.finish());
+		return new InsertUndo(where, len);
+	}
+
+	@Override
+	public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+		if (where < 0 || where + nitems >= length)
+			throw new BadLocationException("Invalid remove", where + nitems);
+		RemoveUndo edit = new RemoveUndo(where, nitems);
+		delete(where, nitems);
+		return edit;
+	}
+
+	@Override
+	public String getString(int where, int len) throws BadLocationException {
+		Segment s = new Segment();
+		getChars(where, len, s);
+		return new String(s.array, s.offset, s.count);
+	}
+
+	/**
+	 * Get a part of the text like getChars() with a partial return, putting the
+	 * characters that have to be made into the buffer of the reader.
+	 *
+	 * @param where  offset of the first character.
+	 * @param len    number of characters.
+	 * @param txt    segment receiving the characters.
+	 * @param buffer array of the reader, or null to get new arrays.
+	 * @throws BadLocationException if the range is not in the text.
+	 */
+	public void getChars(int where, int len, Segment txt, char[] buffer) throws BadLocationException {
+		if (where < 0 || len <= 0 || where + len > length)
+			throw new BadLocationException("Invalid location", where + len);
+		segment(where, len, txt, buffer);
+	}
+
+	@Override
+	public void getChars(int where, int len, Segment txt) throws BadLocationException {
+		if (where < 0 || len < 0 || where + len > length)
+			throw new BadLocationException("Invalid location", where + len);
+
+		// When the caller agrees to a partial result, only the piece where the range
+		// begins is returned, and its characters are not copied.
+		if (txt.isPartialReturn() && len > 0) {
+			segment(where, len, txt, null);
+			return;
+		}
+
+		char[] chars = new char[len];
+		Segment s = new Segment();
+		int n = 0;
+		while (n < len) {
+			segment(where + n, len - n, s, null);
+			System.arraycopy(s.array, s.offset, chars, n, s.count);
+			n += s.count;
+		}
+		txt.array = chars;
+		txt.offset = 0;
+		txt.count = len;
+	}
+
+	/**
+	 * Take a snapshot of the text. Only the pieces are copied: the original
+	 * text and the characters already added to the buffer never change. Until the
+	 * text is changed, the same snapshot is given again, so the readers that take
+	 * a snapshot one after another copy the list once.
+	 * <p>
+	 * The caller must keep the text from being changed meanwhile, as the document
+	 * does by its read lock. Then any thread may take a snapshot.
+	 *
+	 * @return snapshot of the text without the final line feed.
+	 */
+	public TextSnapshot snapshot() {
+		PieceSnapshot s = last;
+		if (s != null && s.version == version)
+			return s;
+
+		int n = root.count;
+		byte[] sources = new byte[n];
+		int[] starts = new int[n];
+		int[] offsets = new int[n + 1];
+		copy(root, 0, sources, starts, offsets);
+		s = new PieceSnapshot(original, added.getChunks(), journal, sources, starts, offsets, length - 1, version);
+		last = s;
+		return s;
+	}
+
+	/**
+	 * Copy the pieces of the subtree to the arrays of a snapshot, in the order of
+	 * the text.
+	 *
+	 * @return index after the last piece copied.
+	 */
+	private static int copy(Node t, int i, byte[] sources, int[] starts, int[] offsets) {
+		while (t != null) {
+			i = copy(t.left, i, sources, starts, offsets);
+			sources[i] = t.source;
+			starts[i] = t.start;
+			offsets[i + 1] = offsets[i] + t.length;
+			++i;
+			// The right subtree by the loop, so only the left ones take the stack
+			t = t.right;
+		}
+		return i;
+	}
+
+	/**
+	 * Point the segment at the characters of the piece where the range begins.
+	 */
+	private void segment(int where, int len, Segment txt, char[] buffer) {
+		// The tree is only read here, so several threads may read the text at once
+		Node t = root;
+		int start = 0;
+		for (;;) {
+			int before = start + total(t.left);
+			if (where < before) {
+				t = t.left;
+			} else if (where >= before + t.length) {
+				start = before + t.length;
+				t = t.right;
+			} else {
+				start = before;
+				break;
+			}
+		}
+
+		int from = t.start + (where - start);
+		int count = Math.min(len, start + t.length - where);
+		if (t.source == ADDED)
+			added.getSegment(from, from + count, txt);
+		else if (t.source == JOURNAL)
+			journal.getText(from, count, txt, buffer);
+		else
+			original.getText(from, count, txt, buffer);
+	}
+
+	/**
+	 * Insert text without recording an undo.
+	 */
+	private void insert(int where, String str) {
+		int len = str.length();
+		if (len == 0)
+			return;
+
+		byte source = JOURNAL;
+		int from = (len >= JOURNAL_LENGTH) ? toJournal(str) : -1;
+		if (from < 0) {
+			source = ADDED;
+			from = added.length();
+			added.append(str);
+		}
+
+		// Typing continues the previous insertion: the last piece just grows.
+		if (where > 0 && grow(where, source, from, len)) {
+			afterInsert(where, len);
+			return;
+		}
+
+		splice(where, new Node(source, from, len, random()));
+		afterInsert(where, len);
+	}
+
+	/**
+	 * Append the text to the journal.
+	 *
+	 * @return index of the text in the journal, or -1 if it cannot be written
+	 *         there and is to be kept in the buffer.
+	 */
+	private int toJournal(CharSequence str) {
+		if (journalFailed)
+			return -1;
+		try {
+			if (journal == null)
+				journal = Journal.create();
+			return journal.append(str);
+		} catch (IOException e) {
+			journalFailed = true;
+			return -1;
+		}
+	}
+
+	/**
+	 * Insert pieces without recording an undo.
+	 */
+	private void insert(int where, List<Piece> list) {
+		int len = 0;
+		for (Piece p : list)
+			len += p.length;
+		if (len == 0)
+			return;
+
+		Node nodes = null;
+		for (Piece p : list)
+			nodes = merge(nodes, new Node(p.source, p.start, p.length, random()));
+		splice(where, nodes);
+		afterInsert(where, len);
+	}
+
+	/**
+	 * Make the piece that ends at the offset longer if the inserted characters
+	 * follow its own in the same source.
+	 *
+	 * @return true if the piece has grown, false if the insertion needs a piece
+	 *         of its own.
+	 */
+	private boolean grow(int where, byte source, int from, int len) {
+		// Find the piece with the character before the offset
+		Node t = root;
+		int start = 0;
+		for (;;) {
+			int before = start + total(t.left);
+			if (where - 1 < before) {
+				t = t.left;
+			} else if (where - 1 >= before + t.length) {
+				start = before + t.length;
+				t = t.right;
+			} else {
+				start = before;
+				break;
+			}
+		}
+		if (start + t.length != where || t.source != source || t.start + t.length != from)
+			return false;
+
+		// The same path again, now every subtree on it is longer
+		Node p = root;
+		start = 0;
+		while (p != t) {
+			p.total += len;
+			int before = start + total(p.left);
+			if (where - 1 < before) {
+				p = p.left;
+			} else {
+				start = before + p.length;
+				p = p.right;
+			}
+		}
+		t.length += len;
+		t.total += len;
+		return true;
+	}
+
+	/**
+	 * Put the pieces into the tree at the offset, splitting the piece there.
+	 */
+	private void splice(int where, Node nodes) {
+		split(root, where);
+		root = merge(merge(lo, nodes), hi);
+	}
+
+	/**
+	 * Copy the descriptions of the pieces covering the range.
+	 */
+	private List<Piece> getPieces(int where, int len) {
+		List<Piece> list = new ArrayList<Piece>();
+		if (len > 0)
+			collect(root, 0, where, where + len, list);
+		return list;
+	}
+
+	/**
+	 * Add to the list the parts of the pieces of the subtree that lie between the
+	 * offsets.
+	 *
+	 * @param start offset of the beginning of the subtree.
+	 */
+	private static void collect(Node t, int start, int from, int to, List<Piece> list) {
+		while (t != null && start < to && start + t.total > from) {
+			int before = start + total(t.left);
+			if (from < before)
+				collect(t.left, start, from, to, list);
+			int begin = Math.max(from, before);
+			int end = Math.min(to, before + t.length);
+			if (begin < end)
+				list.add(new Piece(t.source, t.start + (begin - before), end - begin));
+			start = before + t.length;
+			t = t.right;
+		}
+	}
+
+	/**
+	 * Remove text without recording an undo.
+	 */
+	private void delete(int where, int nitems) {
+		if (nitems == 0)
+			return;
+
+		split(root, where);
+		Node left = lo;
+		split(hi, nitems);
+		root = merge(left, hi);
+
+		length -= nitems;
+		++version;
+		lines.removeUpdate(where, nitems);
+		updateMarksForRemove(where, nitems);
+	}
+
+	/*
+	 * The tree of the pieces is a treap. A node is above its subtrees both by the
+	 * order of the text, the left subtree being before it and the right one after
+	 * it, and by a random priority, which is greater than those of the subtrees.
+	 * So the tree is balanced as if the pieces had been put into it in a random
+	 * order, whatever the order of the edits is. Every change of the tree is made
+	 * of split and merge, each going down one path of the tree.
+	 */
+
+	/**
+	 * Split the tree at the offset into the pieces before it (lo) and the pieces
+	 * after it (hi). The piece across the offset is divided in two.
+	 */
+	private void split(Node t, int offset) {
+		if (t == null) {
+			lo = null;
+			hi = null;
+			return;
+		}
+
+		int before = total(t.left);
+		if (offset <= before) {
+			split(t.left, offset);
+			t.left = hi;
+			t.update();
+			hi = t;
+		} else if (offset >= before + t.length) {
+			split(t.right, offset - before - t.length);
+			t.right = lo;
+			t.update();
+			lo = t;
+		} else {
+			int into = offset - before;
+			Node rest = new Node(t.source, t.start + into, t.length - into, random());
+			Node right = merge(rest, t.right);
+			t.length = into;
+			t.right = null;
+			t.update();
+			lo = t;
+			hi = right;
+		}
+	}
+
+	/**
+	 * Join two trees, all the pieces of the first one being before those of the
+	 * second.
+	 *
+	 * @return the joined tree.
+	 */
+	private static Node merge(Node a, Node b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			a.update();
+			return a;
+		}
+		b.left = merge(a, b.left);
+		b.update();
+		return b;
+	}
+
+	/**
+	 * Get the length of the text of the subtree.
+	 */
+	private static int total(Node t) {
+		return (t == null) ? 0 : t.total;
+	}
+
+	/**
+	 * Get a priority for a new node (xorshift).
+	 */
+	private int random() {
+		int x = seed;
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		seed = x;
+		return x;
+	}
+
+	/**
+	 * Update the length, the lines and the marks after the text has been
+	 * inserted.
+	 */
+	private void afterInsert(int where, int len) {
+		length += len;
+		++version;
+		Segment s = new Segment();
+		int n = 0;
+		while (n < len) {
+			segment(where + n, len - n, s, null);
+			lines.insertUpdate(where + n, s.array, s.offset, s.count);
+			n += s.count;
+		}
+		updateMarksForInsert(where, len);
+	}
+
+	/*
+	 * The marks are kept sorted by offset in blocks of at most BLOCK * 2 marks.
+	 * The offset of a mark is counted from the shift of its block. An edit changes
+	 * the offsets of the marks it touches in one block and the shifts of the
+	 * blocks that follow it, so it costs the same wherever it is made, unlike the
+	 * marks of GapContent, which are moved one by one when the edits jump between
+	 * distant places.
+	 */
+
+	/**
+	 * Find the first mark whose offset is not less than the given one.
+	 *
+	 * @return index of the block in the upper half, index of the mark in the block
+	 *         in the lower half. If there is no such mark, the index of the block
+	 *         is the number of blocks.
+	 */
+	private long findMark(int offset) {
+		int lo = 0;
+		int hi = blocks.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			Block block = blocks.get(mid);
+			if (block.count == 0 || block.last() < offset)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		if (lo == blocks.size())
+			return (long) lo << 32;
+
+		// A block is empty only while the very first mark is being added
+		Block block = blocks.get(lo);
+		int rel = offset - block.shift;
+		int i = 0;
+		int j = block.count;
+		while (i < j) {
+			int mid = (i + j) >>> 1;
+			if (block.marks[mid].offset < rel)
+				i = mid + 1;
+			else
+				j = mid;
+		}
+		return ((long) lo << 32) | i;
+	}
+
+	/**
+	 * Put a new mark into its block.
+	 */
+	private void addMark(Mark m, int offset) {
+		if (blocks.isEmpty())
+			blocks.add(new Block());
+
+		long found = findMark(offset);
+		int b = (int) (found >>> 32);
+		int i = (int) found;
+		if (b == blocks.size()) {
+			// After all the marks
+			b = blocks.size() - 1;
+			i = blocks.get(b).count;
+		}
+
+		Block block = blocks.get(b);
+		System.arraycopy(block.marks, i, block.marks, i + 1, block.count - i);
+		block.marks[i] = m;
+		++block.count;
+		m.block = block;
+		m.offset = offset - block.shift;
+
+		// A full block is divided in half
+		if (block.count == block.marks.length) {
+			Block next = new Block();
+			next.shift = block.shift;
+			next.count = block.count - BLOCK;
+			System.arraycopy(block.marks, BLOCK, next.marks, 0, next.count);
+			Arrays.fill(block.marks, BLOCK, block.count, null);
+			block.count = BLOCK;
+			for (int k = 0; k < next.count; ++k)
+				next.marks[k].block = next;
+			blocks.add(b + 1, next);
+		}
+	}
+
+	/**
+	 * Move the marks after the inserted text. A mark at the very beginning of the
+	 * text stays in place.
+	 */
+	private void updateMarksForInsert(int where, int len) {
+		long found = findMark(where == 0 ? 1 : where);
+		int b = (int) (found >>> 32);
+		if (b == blocks.size())
+			return;
+
+		Block block = blocks.get(b);
+		for (int i = (int) found; i < block.count; ++i)
+			block.marks[i].offset += len;
+		for (int k = b + 1; k < blocks.size(); ++k)
+			blocks.get(k).shift += len;
+	}
+
+	/**
+	 * Move the marks after the removed text; the marks inside it collapse to its
+	 * beginning.
+	 */
+	private void updateMarksForRemove(int where, int len) {
+		long found = findMark(where);
+		int b = (int) (found >>> 32);
+		int i = (int) found;
+		int end = where + len;
+		for (; b < blocks.size(); ++b, i = 0) {
+			Block block = blocks.get(b);
+			for (; i < block.count; ++i) {
+				Mark m = block.marks[i];
+				if (m.offset + block.shift > end) {
+					// The rest of the block and the following blocks are shifted
+					for (; i < block.count; ++i)
+						block.marks[i].offset -= len;
+					for (int k = b + 1; k < blocks.size(); ++k)
+						blocks.get(k).shift -= len;
+					return;
+				}
+				m.offset = where - block.shift;
+			}
+		}
+	}
+
+	/**
+	 * Remember the marks of the range so that they can be returned to their places
+	 * when the text of the range is restored.
+	 */
+	private List<UndoPosRef> getPositionsInRange(int where, int len) {
+		List<UndoPosRef> refs = new ArrayList<UndoPosRef>();
+		long found = findMark(where);
+		int end = where + len;
+		for (int b = (int) (found >>> 32), i = (int) found; b < blocks.size(); ++b, i = 0) {
+			Block block = blocks.get(b);
+			for (; i < block.count; ++i) {
+				if (block.marks[i].offset + block.shift > end)
+					return refs;
+				refs.add(new UndoPosRef(block.marks[i]));
+			}
+		}
+		return refs;
+	}
+
+	/**
+	 * Return the marks to the places they had in the restored text of the range.
+	 */
+	private void updateUndoPositions(List<UndoPosRef> refs, int where, int len) {
+		// The marks now in the range, their order can change
+		List<Mark> range = new ArrayList<Mark>();
+		long found = findMark(where);
+		int end = where + len;
+		int b = (int) (found >>> 32);
+		int i = (int) found;
+		loop: for (int k = b, j = i; k < blocks.size(); ++k, j = 0) {
+			Block block = blocks.get(k);
+			for (; j < block.count; ++j) {
+				if (block.marks[j].offset + block.shift > end)
+					break loop;
+				range.add(block.marks[j]);
+			}
+		}
+
+		for (UndoPosRef ref : refs)
+			ref.mark.offset = ref.offset - ref.mark.block.shift;
+		range.sort(Comparator.comparingInt(m -> m.offset + m.block.shift));
+
+		// The sorted marks take the same places
+		for (Mark m : range) {
+			Block block = blocks.get(b);
+			int offset = m.offset + m.block.shift;
+			block.marks[i] = m;
+			m.block = block;
+			m.offset = offset - block.shift;
+			if (++i == block.count) {
+				++b;
+				i = 0;
+			}
+		}
+	}
+
+	/**
+	 * Forget the marks whose positions are no longer used by anyone.
+	 */
+	private void purgeMarks() {
+		if (queue.poll() == null)
+			return;
+		while (queue.poll() != null)
+			;
+
+		// The blocks are made anew from the remaining marks
+		List<Block> old = new ArrayList<Block>(blocks);
+		blocks.clear();
+		Block block = null;
+		for (Block o : old) {
+			for (int i = 0; i < o.count; ++i) {
+				Mark m = o.marks[i];
+				if (m.get() == null)
+					continue;
+				if (block == null || block.count == BLOCK) {
+					block = new Block();
+					blocks.add(block);
+				}
+				block.marks[block.count++] = m;
+				m.offset += o.shift;
+				m.block = block;
+			}
+		}
+	}
+
+	/**
+	 * A part of the text: a part of the original text, of the buffer of inserted
+	 * text or of the journal.
+	 */
+	private static class Piece {
+		Piece(byte source, int start, int length) {
+			this.source = source;
+			this.start = start;
+			this.length = length;
+		}
+
+		/** Where the characters are: ORIGINAL, ADDED or JOURNAL */
+		final byte source;
+		final int start;
+		final int length;
+	}
+
+	/**
+	 * A text written part by part before it is inserted. The characters are kept
+	 * in an array until there are TEXT_CHUNK of them, then they go to the journal.
+	 * A text shorter than JOURNAL_LENGTH goes to the buffer when it is inserted,
+	 * as insertString() would put it.
+	 */
+	public class Text extends Writer {
+
+		private Text() {
+		}
+
+		/**
+		 * Get the number of characters written.
+		 *
+		 * @return number of characters.
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Does the text have characters written from right to left? AbstractDocument
+		 * lays out such a text in both directions once it is inserted.
+		 *
+		 * @return true/false.
+		 */
+		public boolean isBidi() {
+			return bidi;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			while (len > 0) {
+				int k = Math.min(len, room());
+				System.arraycopy(cbuf, off, chars, count, k);
+				written(k);
+				off += k;
+				len -= k;
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			while (len > 0) {
+				int k = Math.min(len, room());
+				str.getChars(off, off + k, chars, count);
+				written(k);
+				off += k;
+				len -= k;
+			}
+		}
+
+		/**
+		 * The characters are taken by insertText(), there is nothing to flush.
+		 */
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		/**
+		 * Make room in the array for more characters.
+		 *
+		 * @return number of characters that can be put into the array.
+		 */
+		private int room() {
+			if (count == chars.length) {
+				if (count < TEXT_CHUNK)
+					chars = Arrays.copyOf(chars, Math.min(count * 2, TEXT_CHUNK));
+				else
+					put(true);
+			}
+			return chars.length - count;
+		}
+
+		/**
+		 * Count the characters just put into the array.
+		 */
+		private void written(int k) {
+			if (!bidi)
+				bidi = Bidi.requiresBidi(chars, count, count + k);
+			count += k;
+			length += k;
+		}
+
+		/**
+		 * Put the characters of the array into the journal or into the buffer.
+		 *
+		 * @param large is the text large enough for the journal?
+		 */
+		private void put(boolean large) {
+			byte source = JOURNAL;
+			int from = large ? toJournal(CharBuffer.wrap(chars, 0, count)) : -1;
+			if (from < 0) {
+				source = ADDED;
+				from = added.length();
+				added.append(chars, 0, count);
+			}
+
+			// The parts written one after another make one piece
+			int last = pieces.size() - 1;
+			Piece p = (last >= 0) ? pieces.get(last) : null;
+			if (p != null && p.source == source && p.start + p.length == from)
+				pieces.set(last, new Piece(source, p.start, p.length + count));
+			else
+				pieces.add(new Piece(source, from, count));
+			count = 0;
+		}
+
+		/**
+		 * Put the rest of the characters in place.
+		 *
+		 * @return pieces of the text.
+		 */
+		private List<Piece> finish() {
+			if (count > 0)
+				put(length >= JOURNAL_LENGTH);
+			chars = null;
+			return pieces;
+		}
+
+		private char[] chars = new char[1024];
+		/** The number of the characters in the array */
+		private int count = 0;
+		private int length = 0;
+		private boolean bidi = false;
+		private final List<Piece> pieces = new ArrayList<Piece>();
+	}
+
+	/**
+	 * A piece in the tree of the text.
+	 */
+	private static class Node {
+		Node(byte source, int start, int length, int priority) {
+			this.source = source;
+			this.start = start;
+			this.length = length;
+			this.priority = priority;
+			this.total = length;
+		}
+
+		/**
+		 * Count the length and the pieces of the subtree again after its children
+		 * have changed.
+		 */
+		void update() {
+			total = length;
+			count = 1;
+			if (left != null) {
+				total += left.total;
+				count += left.count;
+			}
+			if (right != null) {
+				total += right.total;
+				count += right.count;
+			}
+		}
+
+		final byte source;
+		final int start;
+		int length;
+		final int priority;
+		Node left;
+		Node right;
+		/** The length of the text of the subtree */
+		int total;
+		/** The number of the pieces in the subtree */
+		int count = 1;
+	}
+
+	/**
+	 * Snapshot of the text made of copies of the pieces.
+	 */
+	private static class PieceSnapshot implements TextSnapshot {
+		PieceSnapshot(TextSnapshot original, char[][] chunks, Journal journal, byte[] sources, int[] starts,
+				int[] offsets, int length, int version) {
+			this.original = original;
+			this.chunks = chunks;
+			this.journal = journal;
+			this.sources = sources;
+			this.starts = starts;
+			this.offsets = offsets;
+			this.length = length;
+			this.version = version;
+		}
+
+		@Override
+		public void getText(int offset, int length, Segment txt) {
+			getText(offset, length, txt, null);
+		}
+
+		@Override
+		public void getText(int offset, int length, Segment txt, char[] buffer) {
+			if (offset < 0 || length <= 0 || offset + length > this.length)
+				throw new IndexOutOfBoundsException(offset + length);
+			int i = findPiece(offset);
+			int from = starts[i] + (offset - offsets[i]);
+			int count = Math.min(length, offsets[i + 1] - offset);
+			if (sources[i] == ADDED)
+				AppendBuffer.getSegment(chunks, from, from + count, txt);
+			else if (sources[i] == JOURNAL)
+				journal.getText(from, count, txt, buffer);
+			else
+				original.getText(from, count, txt, buffer);
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length)
+				throw new IndexOutOfBoundsException(index);
+			int i = findPiece(index);
+			int at = starts[i] + (index - offsets[i]);
+			if (sources[i] == ADDED)
+				return AppendBuffer.charAt(chunks, at);
+			return (sources[i] == JOURNAL) ? journal.charAt(at) : original.charAt(at);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			StringBuilder sb = new StringBuilder(end - start);
+			Segment seg = new Segment();
+			while (start < end) {
+				getText(start, end - start, seg);
+				sb.append(seg.array, seg.offset, seg.count);
+				start += seg.count;
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length).toString();
+		}
+
+		/**
+		 * Find the piece containing the offset by the offsets of the pieces.
+		 */
+		private int findPiece(int offset) {
+			int k = Arrays.binarySearch(offsets, offset);
+			// There are no empty pieces, so the offsets do not repeat
+			return (k < 0) ? -k - 2 : k;
+		}
+
+		private final TextSnapshot original;
+		private final char[][] chunks;
+		private final Journal journal;
+		private final byte[] sources;
+		private final int[] starts;
+		private final int[] offsets;
+		private final int length;
+		/** The number of the changes of the content the snapshot was taken after */
+		final int version;
+	}
+
+	/**
+	 * Offset tracked by the content. The mark is held while its position is used.
+	 */
+	private class Mark extends WeakReference<Pos> {
+		Mark(Pos pos) {
+			super(pos, queue);
+		}
+
+		/** The block of the mark */
+		Block block;
+		/** Offset of the mark counted from the shift of the block */
+		int offset;
+	}
+
+	/**
+	 * Several marks going in a row.
+	 */
+	private static class Block {
+		/**
+		 * Get the offset of the last mark of the block.
+		 */
+		int last() {
+			return marks[count - 1].offset + shift;
+		}
+
+		final Mark[] marks = new Mark[BLOCK * 2];
+		int count;
+		int shift;
+	}
+
+	/**
+	 * Position given to the document.
+	 */
+	private class Pos implements Position {
+		@Override
+		public int getOffset() {
+			return mark.offset + mark.block.shift;
+		}
+
+		Mark mark;
+	}
+
+	/**
+	 * The place of a mark before the text was removed.
+	 */
+	private class UndoPosRef {
+		UndoPosRef(Mark mark) {
+			this.mark = mark;
+			this.offset = mark.offset + mark.block.shift;
+		}
+
+		final Mark mark;
+		final int offset;
+	}
+
+	/**
+	 * Undo of an insertion.
+	 */
+	@SuppressWarnings("serial")
+	private class InsertUndo extends AbstractUndoableEdit {
+		InsertUndo(int where, int length) {
+			this.where = where;
+			this.length = length;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			posRefs = getPositionsInRange(where, length);
+			removed = getPieces(where, length);
+			delete(where, length);
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			insert(where, removed);
+			removed = null;
+			updateUndoPositions(posRefs, where, length);
+		}
+
+		private final int where;
+		private final int length;
+		private List<Piece> removed;
+		private List<UndoPosRef> posRefs;
+	}
+
+	/**
+	 * Undo of a removal.
+	 */
+	@SuppressWarnings("serial")
+	private class RemoveUndo extends AbstractUndoableEdit {
+		RemoveUndo(int where, int length) {
+			this.where = where;
+			this.length = length;
+			this.removed = getPieces(where, length);
+			this.posRefs = getPositionsInRange(where, length);
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			insert(where, removed);
+			updateUndoPositions(posRefs, where, length);
+			removed = null;
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			posRefs = getPositionsInRange(where, length);
+			removed = getPieces(where, length);
+			delete(where, length);
+		}
+
+		private final int where;
+		private final int length;
+		private List<Piece> removed;
+		private List<UndoPosRef> posRefs;
+	}
+
+	/** Half of the largest number of marks in a block */
+	private static final int BLOCK = 512;
+
+	/** Where the characters of a piece are */
+	private static final byte ORIGINAL = 0;
+	private static final byte ADDED = 1;
+	private static final byte JOURNAL = 2;
+	/** The shortest inserted text that is written to the journal */
+	private static final int JOURNAL_LENGTH = 1 << 16;
+	/** The most characters a written text keeps on the heap */
+	private static final int TEXT_CHUNK = 1 << 20;
+
+	private final TextSnapshot original;
+	private final AppendBuffer added = new AppendBuffer();
+	/** The journal is created when the first large text is inserted */
+	private Journal journal;
+	private boolean journalFailed = false;
+	private Node root;
+	private final LineIndex lines;
+	private int length;
+
+	/** The trees left by split: the pieces before the offset and after it */
+	private Node lo;
+	private Node hi;
+	/** The state of the generator of the priorities */
+	private int seed = 0x2545F491;
+
+	/** The number of the changes of the content */
+	private int version = 0;
+	/** The snapshot taken last */
+	private volatile PieceSnapshot last;
+
+	/** Marks sorted by offset */
+	private final List<Block> blocks = new ArrayList<Block>();
+	private final ReferenceQueue<Pos> queue = new ReferenceQueue<Pos>();
+}
@@ -0,0 +1,146 @@
+package game.weekend.texteditor;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Plain text document whose content is a piece table (PieceContent).
+ * <p>
+ * The text given to the document becomes the original text of the piece table
+ * and is not inserted: the lines are made at once from the index of the
+ * beginnings of the lines that the content has built.
+ */
+@SuppressWarnings("serial")
+public class PieceDocument extends PlainDocument {
+
+	/**
+	 * Create an empty document.
+	 */
+	public PieceDocument() {
+		this("");
+	}
+
+	/**
+	 * Create a document of the text.
+	 *
+	 * @param text text, line feeds are '\n'.
+	 */
+	public PieceDocument(String text) {
+		super(new PieceContent(text));
+	}
+
+	/**
+	 * Get the index of the beginnings of the lines. The content keeps it up to date
+	 * as the text is edited.
+	 *
+	 * @return index of the beginnings of the lines.
+	 */
+	public LineIndex getLineIndex() {
+		return ((PieceContent) getContent()).getLineIndex();
+	}
+
+	/**
+	 * Get a part of the text like getText() with a partial return, putting the
+	 * characters that have to be made, decoded from a file or read from the
+	 * journal, into the buffer of the reader instead of a new array.
+	 *
+	 * @param offset offset of the first character.
+	 * @param length number of characters.
+	 * @param txt    segment receiving the characters.
+	 * @param buffer array of the reader.
+	 * @throws BadLocationException if the range is not in the text.
+	 */
+	public void getText(int offset, int length, Segment txt, char[] buffer) throws BadLocationException {
+		((PieceContent) getContent()).getChars(offset, length, txt, buffer);
+	}
+
+	/**
+	 * Start a text that is written part by part into the content and then put
+	 * into the document by replace(int, int, PieceContent.Text).
+	 *
+	 * @return text to write.
+	 */
+	public PieceContent.Text newText() {
+		return ((PieceContent) getContent()).newText();
+	}
+
+	/**
+	 * Replace a part of the text with a text written beforehand, like replace().
+	 * The listeners are told of one removal and one insertion, and the text is not
+	 * made into a String on the way.
+	 *
+	 * @param offset beginning of the part.
+	 * @param length length of the part.
+	 * @param text   new text.
+	 * @throws BadLocationException if the part is not in the text.
+	 */
+	public void replace(int offset, int length, PieceContent.Text text) throws BadLocationException {
+		writeLock();
+		try {
+			if (length > 0)
+				remove(offset, length);
+			if (text.length() > 0) {
+				// What insertString() decides by the inserted String
+				if (text.isBidi())
+					putProperty(I18N, Boolean.TRUE);
+				UndoableEdit edit = ((PieceContent) getContent()).insertText(offset, text);
+				DefaultDocumentEvent e = new DefaultDocumentEvent(offset, text.length(),
+						DocumentEvent.EventType.INSERT);
+				e.addEdit(edit);
+				insertUpdate(e, null);
+				e.end();
+				fireInsertUpdate(e);
+				fireUndoableEditUpdate(new UndoableEditEvent(this, e));
+			}
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	/**
+	 * Release the journal of the content when the document is no longer edited.
+	 */
+	public void close() {
+		((PieceContent) getContent()).close();
+	}
+
+	/**
+	 * Take a snapshot of the text that can be read by another thread.
+	 *
+	 * @return snapshot of the text.
+	 */
+	public TextSnapshot getSnapshot() {
+		readLock();
+		try {
+			return ((PieceContent) getContent()).snapshot();
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Unlike PlainDocument, the root has a line for every line of the text, not
+	 * one empty line.
+	 */
+	@Override
+	protected AbstractElement createDefaultRoot() {
+		BranchElement map = (BranchElement) createBranchElement(null, null);
+		LineIndex index = ((PieceContent) getContent()).getLineIndex();
+		int n = index.getLineCount();
+		Element[] lines = new Element[n];
+		for (int i = 0; i < n; ++i) {
+			int end = (i + 1 < n) ? index.getLineStart(i + 1) : getContent().length();
+			lines[i] = createLeafElement(map, null, index.getLineStart(i), end);
+		}
+		map.replace(0, 0, lines);
+		return map;
+	}
+
+	/** The property of AbstractDocument telling that the text is laid out in both directions */
+	private static final String I18N = "i18n";
+}
@@ -0,0 +1,247 @@
+package game.weekend.texteditor;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Search for a regular expression in a text given as a CharSequence.
+ * <p>
+ * The expression is compiled once and the object is kept while the pattern and
+ * the case sensitivity stay the same. The text is not copied: the matcher reads
+ * it through the CharSequence. The lookarounds see the text outside the region
+ * being searched, so the result does not depend on where the search began.
+ * <p>
+ * An expression can backtrack for a very long time. Every search is given
+ * TIMEOUT milliseconds, after that the reading of the text throws
+ * RegexSearch.Timeout.
+ */
+public class RegexSearch implements SearchEngine {
+
+	/**
+	 * Compile the expression.
+	 *
+	 * @param pattern       regular expression.
+	 * @param caseSensitive is the case of the letters significant.
+	 * @throws PatternSyntaxException if the expression is incorrect.
+	 */
+	public RegexSearch(String pattern, boolean caseSensitive) {
+		this.regex = Pattern.compile(pattern,
+				Pattern.MULTILINE | (caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+	}
+
+	/**
+	 * Find the first match in a part of the text.
+	 *
+	 * @param text text.
+	 * @param from where to begin.
+	 * @param to   where the match must end.
+	 * @return offset of the match or -1.
+	 */
+	@Override
+	public int find(CharSequence text, int from, int to) {
+		chars = new Deadline(text);
+		matcher = regex.matcher(chars);
+		matcher.useTransparentBounds(true);
+		matcher.useAnchoringBounds(false);
+		matcher.region(Math.max(from, 0), Math.min(to, text.length()));
+		return findNext();
+	}
+
+	/**
+	 * Find the next match after the one found last.
+	 *
+	 * @return offset of the match or -1.
+	 */
+	@Override
+	public int findNext() {
+		chars.start();
+		return matcher.find() ? matcher.start() : -1;
+	}
+
+	/**
+	 * Find the first match beginning not before the offset.
+	 *
+	 * @param text text.
+	 * @param from where to begin.
+	 * @return offset of the match or -1.
+	 */
+	@Override
+	public int indexOf(CharSequence text, int from) {
+		return find(text, from, text.length());
+	}
+
+	/**
+	 * Find the last match ending not after the offset. The matches cannot be
+	 * searched backwards, so the text is searched from the beginning.
+	 *
+	 * @param text text.
+	 * @param end  where the match must end.
+	 * @return offset of the match or -1.
+	 */
+	@Override
+	public int lastIndexOf(CharSequence text, int end) {
+		int start = -1;
+		int stop = -1;
+		for (int i = find(text, 0, end); i >= 0; i = findNext()) {
+			start = i;
+			stop = matcher.end();
+		}
+		// Find the last match again, so that it is the current one
+		if (start >= 0)
+			find(text, start, stop);
+		return start;
+	}
+
+	/**
+	 * Does all the part of the text match the expression? If it does, the part
+	 * becomes the current match.
+	 *
+	 * @param text  text.
+	 * @param start beginning of the part.
+	 * @param end   end of the part.
+	 * @return true/false.
+	 */
+	@Override
+	public boolean matches(CharSequence text, int start, int end) {
+		chars = new Deadline(text);
+		matcher = regex.matcher(chars);
+		matcher.useTransparentBounds(true);
+		matcher.useAnchoringBounds(false);
+		matcher.region(start, end);
+		chars.start();
+		return matcher.matches();
+	}
+
+	/**
+	 * Get the end of the current match.
+	 *
+	 * @return offset after the last character of the match.
+	 */
+	@Override
+	public int end() {
+		return matcher.end();
+	}
+
+	/**
+	 * Add the replacement of the current match. As in Matcher.appendReplacement(),
+	 * $n and ${name} are the groups of the match, the backslash takes the next
+	 * character as it is. Unlike it, the text before the match is not added.
+	 *
+	 * @param sb          where to add.
+	 * @param replacement replacement.
+	 * @throws IllegalArgumentException if the replacement refers to a group that
+	 *                                  does not exist.
+	 */
+	@Override
+	public void appendReplacement(StringBuilder sb, String replacement) {
+		int n = replacement.length();
+		int i = 0;
+		while (i < n) {
+			char c = replacement.charAt(i++);
+			if (c == '\\' && i < n) {
+				sb.append(replacement.charAt(i++));
+			} else if (c == '$' && i < n) {
+				String group;
+				if (replacement.charAt(i) == '{') {
+					int close = replacement.indexOf('}', i);
+					if (close < 0)
+						throw new IllegalArgumentException(replacement);
+					group = matcher.group(replacement.substring(i + 1, close));
+					i = close + 1;
+				} else {
+					// The number is taken while there is such a group
+					if (!Character.isDigit(replacement.charAt(i)))
+						throw new IllegalArgumentException(replacement);
+					int number = replacement.charAt(i++) - '0';
+					while (i < n && Character.isDigit(replacement.charAt(i))) {
+						int next = number * 10 + replacement.charAt(i) - '0';
+						if (next > matcher.groupCount())
+							break;
+						number = next;
+						++i;
+					}
+					if (number > matcher.groupCount())
+						throw new IllegalArgumentException(replacement);
+					group = matcher.group(number);
+				}
+				if (group != null)
+					sb.append(group);
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Get the replacement of the current match.
+	 *
+	 * @param replacement replacement with references to the groups.
+	 * @return replacement with the groups substituted.
+	 */
+	@Override
+	public String getReplacement(String replacement) {
+		StringBuilder sb = new StringBuilder();
+		appendReplacement(sb, replacement);
+		return sb.toString();
+	}
+
+	/**
+	 * The search has taken longer than TIMEOUT.
+	 */
+	@SuppressWarnings("serial")
+	public static class Timeout extends RuntimeException {
+	}
+
+	/**
+	 * The text whose reading stops after the time given to the search.
+	 */
+	private static class Deadline implements CharSequence {
+
+		Deadline(CharSequence text) {
+			this.text = text;
+		}
+
+		/**
+		 * Begin counting the time of the search.
+		 */
+		void start() {
+			deadline = System.nanoTime() + TIMEOUT * 1_000_000L;
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			// The clock is looked at not on every character
+			if ((++reads & 0xFFFF) == 0 && System.nanoTime() - deadline > 0)
+				throw new Timeout();
+			return text.charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return text.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return text.toString();
+		}
+
+		private final CharSequence text;
+		private long deadline;
+		private int reads;
+	}
+
+	/** How long one search may take, milliseconds */
+	public static final int TIMEOUT = 10_000;
+
+	private final Pattern regex;
+
+	private Deadline chars;
+	private Matcher matcher;
+}
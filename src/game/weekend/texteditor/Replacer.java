@@ -1,12 +1,17 @@
 package game.weekend.texteditor;
 
-import java.awt.Rectangle;
-import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 
 import javax.swing.JEditorPane;
 import javax.swing.JFrame;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.AbstractDocument;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 
 /**
  * Replace the text displayed in a JEditorPane.
@@ -16,24 +21,35 @@ public class Replacer {
 	/**
 	 * Create an object to replace the text displayed in the JEditorPane.
 	 *
-	 * @param pane  JEditorPane itself.
-	 * @param frame the frame in which the JEditorPane is located.
-	 * @param laf   LaF
+	 * @param editor the editor whose JEditorPane displays the text.
+	 * @param frame  the frame in which the JEditorPane is located.
+	 * @param laf    LaF
 	 */
-	public Replacer(JEditorPane pane, JFrame frame, LaF laf) {
-		this.pane = pane;
+	public Replacer(Editor editor, JFrame frame, LaF laf) {
+		this.editor = editor;
+		this.pane = editor.getPane();
 		this.appFrame = frame;
 		this.laf = laf;
 		this.pattern = Proper.getProperty("Pattern", "");
 		this.replacer = Proper.getProperty("Replacer", "");
 		this.caseSensitive = Proper.getProperty("CaseSensitive", "FALSE").equalsIgnoreCase("TRUE") ? true : false;
+		this.regex = Proper.getProperty("RegularExpression", "FALSE").equalsIgnoreCase("TRUE");
+		this.wholeWord = Proper.getProperty("WholeWord", "FALSE").equalsIgnoreCase("TRUE");
+		this.search = new PaneSearch(pane);
+		search.setPattern(pattern, caseSensitive, regex, wholeWord, 0);
+		this.tracker = new MatchTracker(pane, new Runnable() {
+			@Override
+			public void run() {
+				WeekendTextEditor.status.showText3(tracker.getCounter());
+			}
+		});
 	}
 
 	/**
 	 * Reset the search start position to its original state.
 	 */
 	public void resetPosition() {
-		position = -1;
+		search.resetPosition();
 	}
 
 	/**
@@ -48,6 +64,8 @@ public class Replacer {
 					setPattern(pattern);
 					setReplacer(replacer);
 					setCase(caseSensitive);
+					setRegex(regex);
+					setWholeWord(wholeWord);
 					setFindDown(true);
 					laf.addUpdateComponent(this);
 				}
@@ -57,15 +75,14 @@ public class Replacer {
 					// Search attributes
 					pattern = getPattern();
 					Proper.setProperty("Pattern", pattern);
-					caseSensitive = getCase();
-					Proper.setProperty("CaseSensitive", caseSensitive ? "TRUE" : "FALSE");
+					takeAttributes();
 
 					// Search forward or backward
 					findDown = getFindDown();
 					if (findDown)
-						findForward();
+						search.findForward();
 					else
-						findBack();
+						search.findBack();
 
 					// Focus on the search template field
 					whatFocus();
@@ -77,23 +94,35 @@ public class Replacer {
 					// The replacement attributes
 					replacer = getReplacer();
 					Proper.setProperty("Replacer", replacer);
-					caseSensitive = getCase();
-					Proper.setProperty("CaseSensitive", caseSensitive ? "TRUE" : "FALSE");
+					takeAttributes();
 
 					// Does the selection match the pattern?
-					if (selectionMatchPattern()) {
+					if (search.selectionMatches()) {
 						int start = pane.getSelectionStart();
-						// Replace selection
-						pane.replaceSelection(replacer);
-						// Select replacement
-						pane.select(start, start + pattern.length());
+						// The groups of the expression are substituted into the replacement
+						String text;
+						try {
+							text = search.getSearch().getReplacement(replacer);
+						} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+							WeekendTextEditor.status.showMessage(Loc.get("invalid_replacement") + ": " + replacer);
+							return;
+						}
+						// Replace selection and select the replacement, the editor shows the result
+						// once
+						editor.beginBatch();
+						try {
+							pane.replaceSelection(text);
+							pane.select(start, start + text.length());
+						} finally {
+							editor.endBatch();
+						}
 					} else {
 						// Search further
 						findDown = getFindDown();
 						if (findDown)
-							findForward();
+							search.findForward();
 						else
-							findBack();
+							search.findBack();
 					}
 				}
 
@@ -101,55 +130,35 @@ public class Replacer {
 				public void replaceAll() {
 
 					// Replacement attributes
+					pattern = getPattern();
+					Proper.setProperty("Pattern", pattern);
 					replacer = getReplacer();
 					Proper.setProperty("Replacer", replacer);
-					caseSensitive = getCase();
-					Proper.setProperty("CaseSensitive", caseSensitive ? "TRUE" : "FALSE");
-
-					// The selection does NOT match the template?
-					if (!selectionMatchPattern()) {
-						// Search further
-						findDown = getFindDown();
-						if (findDown)
-							findForward();
-						else
-							findBack();
-					}
+					takeAttributes();
 
-					while (selectionMatchPattern()) {
-						// Replace selection
-						pane.replaceSelection(replacer);
-
-						// Search further
-						findDown = getFindDown();
-						if (findDown)
-							findForward();
-						else
-							findBack();
-					}
+					// Replace from the selection to the end or to the beginning of the text
+					findDown = getFindDown();
+					Replacer.this.replaceAll();
 				}
 
 				/**
-				 * Does the selection match the pattern?
-				 * 
-				 * @return true/false
+				 * Take the search attributes from the frame and remember them.
 				 */
-				private boolean selectionMatchPattern() {
-					String selectedText = pane.getSelectedText();
-					if (selectedText == null)
-						return false;
-
-					boolean found = false;
-					if (caseSensitive)
-						found = selectedText.equals(pattern);
-					else
-						found = selectedText.equalsIgnoreCase(pattern);
-					return found;
+				private void takeAttributes() {
+					caseSensitive = getCase();
+					Proper.setProperty("CaseSensitive", caseSensitive ? "TRUE" : "FALSE");
+					regex = getRegex();
+					Proper.setProperty("RegularExpression", regex ? "TRUE" : "FALSE");
+					wholeWord = getWholeWord();
+					Proper.setProperty("WholeWord", wholeWord ? "TRUE" : "FALSE");
+					search.setPattern(pattern, caseSensitive, regex, wholeWord, 0);
+					tracker.track(pattern, caseSensitive, regex, wholeWord, 0);
 				}
 
 				@Override
 				public void close() {
 					super.close();
+					tracker.clear();
 					laf.removeUpdateComponent(replacerFrame);
 					replacerFrame = null;
 				}
@@ -160,98 +169,203 @@ public class Replacer {
 	}
 
 	/**
-	 * Search current substring forward
+	 * Replace all occurrences from the selection in the direction of the search.
+	 * <p>
+	 * The occurrences are found in one pass over the text. As they are found, the
+	 * text from the first one to the end of the last one is written with the
+	 * replacements into the content of the document, its buffer or its journal,
+	 * copying the text between them by segments. Then the range is replaced by
+	 * one removal and one insertion, which are undone in one step.
 	 */
-	private void findForward() {
+	private void replaceAll() {
+		// A text that can only be read is not changed, as replaceSelection() does not
+		// change it
+		if (pattern.trim().length() == 0 || !pane.isEditable())
+			return;
+
 		try {
-			String content = getContent();
-			String pattern = getPattern();
-			if (pattern.trim().length() > 0) {
-
-				int carretPos = pane.getCaret().getMark();
-				if (position == carretPos)
-					++position;
-				else
-					position = carretPos;
-
-				int i = content.indexOf(pattern, position);
-				showResult(i);
-			}
-		} catch (BadLocationException ignored) {
+			int n = replaceAllMatches();
+			if (n == 0)
+				WeekendTextEditor.status.showMessage(Loc.get("unable_to_find") + " \"" + pattern + "\"");
+			else if (n > 0)
+				WeekendTextEditor.status.showMessage(Loc.get("replacements_made") + ": " + n);
+		} catch (BadLocationException | IOException ignored) {
+		} catch (RegexSearch.Timeout e) {
+			WeekendTextEditor.status.showMessage(Loc.get("the_search_took_too_long"));
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			WeekendTextEditor.status.showMessage(Loc.get("invalid_replacement") + ": " + replacer);
 		}
 	}
 
 	/**
-	 * Search current substring backwards
+	 * Replace all matches. The matches are found from the selection to the end of
+	 * the text, or from the beginning of the text to the selection.
+	 * 
+	 * @return number of replacements, or -1 if the regular expression is
+	 *         incorrect.
+	 * @throws BadLocationException inherited exception.
+	 * @throws IOException          if the new text cannot be written.
 	 */
-	private void findBack() {
-		try {
-			String content = getContent();
-			String pattern = getPattern();
-			if (pattern.trim().length() > 0) {
+	private int replaceAllMatches() throws BadLocationException, IOException {
+		SearchEngine s = search.getSearch();
+		if (s == null)
+			return -1;
+
+		AbstractDocument doc = (AbstractDocument) pane.getDocument();
+		DocumentChars text = search.getContent();
+		TextSnapshot snapshot = TextSnapshot.of(doc);
+		int from = findDown ? pane.getSelectionStart() : 0;
+		int to = findDown ? text.length() : pane.getSelectionEnd();
+
+		// The document is not changed while the search reads it, the new text is only
+		// appended to its content
+		Writer out = newText(doc);
+		Segment seg = new Segment();
+		seg.setPartialReturn(true);
+		StringBuilder sb = new StringBuilder();
+		int n = 0;
+		int start = -1;
+		int pos = -1;
+		int length = 0;
+		for (int i = s.find(text, from, to); i >= 0; i = s.findNext()) {
+			sb.setLength(0);
+			s.appendReplacement(sb, replacer);
+			if (n == 0) {
+				start = i;
+			} else {
+				writeText(snapshot, pos, i, out, seg);
+				length += i - pos;
+			}
+			out.append(sb);
+			length += sb.length();
+			pos = s.end();
+			++n;
+		}
+		if (n == 0)
+			return 0;
 
-				position = pane.getCaret().getDot();
-				if (position != pane.getCaret().getMark())
-					--position;
+		// The caret goes after the last replacement, or before the first one when
+		// replacing back
+		editor.beginBatch();
+		try {
+			replace(doc, start, pos, out);
+			pane.setCaretPosition(findDown ? start + length : start);
+		} finally {
+			editor.endBatch();
+		}
+		search.resetPosition();
+		return n;
+	}
 
-				int i = content.substring(0, position).lastIndexOf(pattern, position);
-				showResult(i);
+	/**
+	 * Write the text with all matches replaced. The text between the matches is
+	 * copied by segments, so the text is never held in memory as a whole.
+	 * 
+	 * @param text        text.
+	 * @param search      search for the pattern.
+	 * @param replacement replacement, with references to the groups of a regular
+	 *                    expression.
+	 * @param out         where to write, or null only to count the matches.
+	 * @return number of replacements.
+	 * @throws IOException              if writing fails.
+	 * @throws IllegalArgumentException if the replacement refers to a group that
+	 *                                  does not exist.
+	 */
+	public static int replaceAll(TextSnapshot text, SearchEngine search, String replacement, Writer out)
+			throws IOException {
+		DocumentChars chars = new DocumentChars(text, 0, text.length());
+		Segment seg = new Segment();
+		seg.setPartialReturn(true);
+		StringBuilder sb = new StringBuilder();
+		int n = 0;
+		int pos = 0;
+		for (int i = search.find(chars, 0, chars.length()); i >= 0; i = search.findNext()) {
+			// The replacement is built even when counting, so a wrong one is noticed
+			sb.setLength(0);
+			search.appendReplacement(sb, replacement);
+			if (out != null) {
+				writeText(text, pos, i, out, seg);
+				out.append(sb);
 			}
-		} catch (BadLocationException ignored) {
+			pos = search.end();
+			++n;
 		}
+		if (out != null)
+			writeText(text, pos, text.length(), out, seg);
+		return n;
 	}
 
 	/**
-	 * Get the substring to search for.
-	 * 
-	 * @return substring to search for.
+	 * Write a part of the text by segments.
 	 */
-	private String getPattern() {
-		if (!caseSensitive) {
-			return pattern.toUpperCase();
-		} else {
-			return pattern;
+	private static void writeText(TextSnapshot text, int from, int to, Writer out, Segment seg) throws IOException {
+		while (from < to) {
+			text.getText(from, to - from, seg);
+			out.write(seg.array, seg.offset, seg.count);
+			from += seg.count;
 		}
 	}
 
 	/**
-	 * Get the text displayed in the JEditorPane.
+	 * Get where to write the new text. The content of a piece table takes it into
+	 * its buffer or its journal, another document gets it as a String.
 	 * 
-	 * @return text displayed in JEditorPane.
-	 * @throws BadLocationException inherited exception.
+	 * @param doc document.
+	 * @return writer of the new text.
 	 */
-	private String getContent() throws BadLocationException {
-		Document d = pane.getDocument();
-		String s = d.getText(0, d.getLength());
-		if (!caseSensitive) {
-			s = s.toUpperCase();
-		}
-		return s;
+	private static Writer newText(Document doc) {
+		if (doc instanceof PieceDocument)
+			return ((PieceDocument) doc).newText();
+		if (doc instanceof LargeDocument)
+			return ((LargeDocument) doc).newText();
+		return new StringWriter();
 	}
 
 	/**
-	 * Select the found substring in JEditorPane.
+	 * Replace the range with the new text as one change. The document removes and
+	 * inserts separately, I collect both edits into one and give it to those who
+	 * listen to the edits of the document (UndoHistory).
 	 * 
-	 * @param i the position at which the found substring begins.
+	 * @param doc   document.
+	 * @param start beginning of the range.
+	 * @param end   end of the range.
+	 * @param text  new text written by newText().
 	 * @throws BadLocationException inherited exception.
 	 */
-	private void showResult(int i) throws BadLocationException {
-		if (i >= 0) {
-			position = i;
-			WeekendTextEditor.status.showMessage("");
-
-			// Make visible on screen
-			Rectangle2D rect2D = pane.modelToView2D(position);
-			Rectangle rect = new Rectangle((int) rect2D.getX(), (int) rect2D.getY(), (int) rect2D.getWidth(),
-					(int) rect2D.getHeight());
-			pane.scrollRectToVisible(rect);
-
-			pane.select(position, position + pattern.length());
-		} else
-			WeekendTextEditor.status.showMessage(Loc.get("unable_to_find") + " \"" + pattern + "\"");
+	private void replace(AbstractDocument doc, int start, int end, Writer text) throws BadLocationException {
+		UndoHistory.Group edit = new UndoHistory.Group();
+		UndoableEditListener collector = new UndoableEditListener() {
+			@Override
+			public void undoableEditHappened(UndoableEditEvent e) {
+				edit.addEdit(e.getEdit());
+			}
+		};
+
+		UndoableEditListener[] listeners = doc.getUndoableEditListeners();
+		for (UndoableEditListener l : listeners)
+			doc.removeUndoableEditListener(l);
+		doc.addUndoableEditListener(collector);
+		try {
+			if (doc instanceof PieceDocument)
+				((PieceDocument) doc).replace(start, end - start, (PieceContent.Text) text);
+			else if (doc instanceof LargeDocument)
+				((LargeDocument) doc).replace(start, end - start, (PieceContent.Text) text);
+			else
+				doc.replace(start, end - start, text.toString(), null);
+		} finally {
+			doc.removeUndoableEditListener(collector);
+			for (UndoableEditListener l : listeners)
+				doc.addUndoableEditListener(l);
+		}
+
+		edit.end();
+		UndoableEditEvent event = new UndoableEditEvent(doc, edit);
+		for (UndoableEditListener l : listeners)
+			l.undoableEditHappened(event);
 	}
 
 	private JFrame appFrame;
+	private Editor editor;
 	private JEditorPane pane;
 	private LaF laf;
 
@@ -260,7 +374,11 @@ public class Replacer {
 	private String pattern = "";
 	private String replacer = "";
 	private boolean caseSensitive = false;
+	private boolean regex = false;
+	private boolean wholeWord = false;
 	private boolean findDown = true;
 
-	private int position = -1;
+	private PaneSearch search;
+
+	private MatchTracker tracker;
 }
@@ -40,7 +40,7 @@ public abstract class ReplacerFrame extends JDialog {
 		super(owner, Loc.get("replace"), false);
 
 		// Default size and location
-		Proper.setBounds(this, 370, 190, 460, 220);
+		Proper.setBounds(this, 370, 190, 460, 245);
 
 		// Intercept Esc press to close frame
 		InputMap inputMap = getRootPane().getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
@@ -74,6 +74,8 @@ public abstract class ReplacerFrame extends JDialog {
 		fldHow = new JTextField(50);
 
 		chkCase = new JCheckBox(Loc.get("case_sensitive"));
+		chkRegex = new JCheckBox(Loc.get("regular_expression"));
+		chkWord = new JCheckBox(Loc.get("whole_words"));
 
 		opbUp = new JRadioButton(Loc.get("back"));
 		opbDown = new JRadioButton(Loc.get("forward"));
@@ -149,6 +151,12 @@ public abstract class ReplacerFrame extends JDialog {
 		g.newLine();
 		g.addFixL(chkCase, 4);
 		g.addFixL(panDir, 2);
+
+		g.newLine();
+		g.addFixL(chkRegex, 4);
+
+		g.newLine();
+		g.addFixL(chkWord, 4);
 	}
 
 	/**
@@ -235,6 +243,42 @@ public abstract class ReplacerFrame extends JDialog {
 		chkCase.setSelected(caseSensitive);
 	}
 
+	/**
+	 * Get the regular expression flag.
+	 * 
+	 * @return is the pattern a regular expression.
+	 */
+	public boolean getRegex() {
+		return chkRegex.isSelected();
+	}
+
+	/**
+	 * Set the regular expression flag.
+	 * 
+	 * @param regex is the pattern a regular expression.
+	 */
+	public void setRegex(boolean regex) {
+		chkRegex.setSelected(regex);
+	}
+
+	/**
+	 * Get the whole words flag.
+	 * 
+	 * @return must a match be a whole word.
+	 */
+	public boolean getWholeWord() {
+		return chkWord.isSelected();
+	}
+
+	/**
+	 * Set the whole words flag.
+	 * 
+	 * @param wholeWord must a match be a whole word.
+	 */
+	public void setWholeWord(boolean wholeWord) {
+		chkWord.setSelected(wholeWord);
+	}
+
 	/**
 	 * Get the search down flag.
 	 * 
@@ -259,6 +303,10 @@ public abstract class ReplacerFrame extends JDialog {
 	protected JTextField fldHow;
 	/** Case sensitive */
 	private JCheckBox chkCase;
+	/** Regular expression */
+	private JCheckBox chkRegex;
+	/** Whole words */
+	private JCheckBox chkWord;
 	/** Search up */
 	private JRadioButton opbUp;
 	/** Search down */
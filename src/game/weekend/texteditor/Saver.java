@@ -0,0 +1,263 @@
+package game.weekend.texteditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.swing.text.Segment;
+
+/**
+ * Saving text to a file.
+ * <p>
+ * The text is taken from a snapshot of the document, so it can be saved by a
+ * worker thread while the user goes on editing. The text is not collected into
+ * a String. It is taken from the snapshot piece by piece, each piece is encoded
+ * into a buffer of a fixed size and written straight into the channel of a
+ * temporary file next to the target one. When
+ * everything is written and forced to disk, the temporary file replaces the
+ * target one. So saving needs the same little memory for any text, and a crash
+ * in the middle of saving leaves the old file intact.
+ * <p>
+ * If the temporary file cannot take the place of the target one, as on Windows
+ * when the target is mapped into memory, the temporary file is kept and
+ * NotReplaced tells where it is, so the text written is not lost.
+ */
+public class Saver {
+
+	/**
+	 * Creating objects of this class is prohibited. The class contains only static
+	 * methods.
+	 */
+	private Saver() {
+	}
+
+	/**
+	 * Save the text to the file, writing the line feeds of the text as the given
+	 * line ends.
+	 *
+	 * @param text      snapshot of the text.
+	 * @param separator line ends: "\n", "\r\n" or "\r".
+	 * @param file      file.
+	 * @throws IOException if the text cannot be encoded or written.
+	 */
+	public static void save(TextSnapshot text, String separator, File file) throws IOException {
+		replace(file, channel -> write(text, separator, channel));
+	}
+
+	/**
+	 * Save the text written by the source to the file. The text is encoded as it
+	 * is written and is not kept in memory.
+	 *
+	 * @param file   file.
+	 * @param source writes the text.
+	 * @throws IOException if the text cannot be encoded or written.
+	 */
+	public static void save(File file, Source source) throws IOException {
+		replace(file, channel -> {
+			Writer out = Channels.newWriter(channel, Filer.CHARSET.newEncoder(), BUFFER);
+			source.write(out);
+			out.flush();
+		});
+	}
+
+	/**
+	 * Writes the text to be saved.
+	 */
+	public interface Source {
+
+		/**
+		 * Write the text.
+		 *
+		 * @param out where to write.
+		 * @throws IOException if writing fails.
+		 */
+		void write(Writer out) throws IOException;
+	}
+
+	/**
+	 * The text has been written, but the temporary file could not take the place
+	 * of the target file. The temporary file is kept.
+	 */
+	@SuppressWarnings("serial")
+	public static class NotReplaced extends IOException {
+
+		NotReplaced(Path temp, IOException cause) {
+			super(Loc.get("the_text_is_saved_to") + " " + temp, cause);
+			this.temp = temp.toFile();
+		}
+
+		/**
+		 * Get the file the text has been written to.
+		 *
+		 * @return temporary file.
+		 */
+		public File getFile() {
+			return temp;
+		}
+
+		private final File temp;
+	}
+
+	/**
+	 * Write to a temporary file and put it in place of the file.
+	 */
+	private static void replace(File file, Content content) throws IOException {
+		Path target = file.getAbsoluteFile().toPath();
+		// Replace the file a link points to, not the link
+		if (Files.isSymbolicLink(target))
+			target = target.toRealPath();
+
+		Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		boolean kept = false;
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				content.write(channel);
+				channel.force(true);
+			}
+			copyPermissions(target, temp);
+
+			try {
+				try {
+					Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (FileSystemException e) {
+				// The target is in use, the text is not thrown away with the temporary file
+				kept = true;
+				throw new NotReplaced(temp, e);
+			}
+		} finally {
+			if (!kept)
+				Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Writes the content of the temporary file.
+	 */
+	private interface Content {
+		void write(FileChannel channel) throws IOException;
+	}
+
+	/**
+	 * Encode the text into the channel, replacing the line feeds with the line
+	 * ends.
+	 */
+	private static void write(TextSnapshot text, String separator, FileChannel channel) throws IOException {
+		CharsetEncoder encoder = Filer.CHARSET.newEncoder();
+		ByteBuffer out = ByteBuffer.allocate(BUFFER);
+		Segment seg = new Segment();
+		CharBuffer lineEnd = separator.equals("\n") ? null : CharBuffer.wrap(separator);
+		char[] pair = new char[2];
+		char[] buffer = new char[CHUNK];
+
+		int length = text.length();
+		int pos = 0;
+		while (pos < length) {
+			text.getText(pos, Math.min(CHUNK, length - pos), seg, buffer);
+
+			// A surrogate pair is not split between pieces: the high surrogate at the
+			// end of a piece is encoded together with the character that follows it,
+			// even if the piece has nothing else
+			int count = seg.count;
+			boolean split = pos + count < length && Character.isHighSurrogate(seg.array[seg.offset + count - 1]);
+			if (split)
+				--count;
+
+			encode(encoder, seg.array, seg.offset, count, lineEnd, out, channel);
+			pos += count;
+
+			if (split) {
+				pair[0] = seg.array[seg.offset + count];
+				pair[1] = text.charAt(pos + 1);
+				encode(encoder, pair, 0, 2, lineEnd, out, channel);
+				pos += 2;
+			}
+		}
+		encode(encoder, CharBuffer.allocate(0), out, channel, true);
+
+		CoderResult result;
+		while ((result = encoder.flush(out)).isOverflow())
+			drain(out, channel);
+		if (result.isError())
+			result.throwException();
+		drain(out, channel);
+	}
+
+	/**
+	 * Encode characters of the array, replacing the line feeds with the line ends
+	 * if they are given.
+	 */
+	private static void encode(CharsetEncoder encoder, char[] chars, int offset, int count, CharBuffer lineEnd,
+			ByteBuffer out, FileChannel channel) throws IOException {
+		if (lineEnd == null) {
+			encode(encoder, CharBuffer.wrap(chars, offset, count), out, channel, false);
+			return;
+		}
+
+		// The characters between the line feeds are encoded as they are
+		int from = offset;
+		int end = offset + count;
+		for (int i = from; i < end; ++i) {
+			if (chars[i] == '\n') {
+				encode(encoder, CharBuffer.wrap(chars, from, i - from), out, channel, false);
+				encode(encoder, lineEnd.duplicate(), out, channel, false);
+				from = i + 1;
+			}
+		}
+		encode(encoder, CharBuffer.wrap(chars, from, end - from), out, channel, false);
+	}
+
+	/**
+	 * Encode characters, writing the buffer to the channel whenever it fills up.
+	 */
+	private static void encode(CharsetEncoder encoder, CharBuffer in, ByteBuffer out, FileChannel channel,
+			boolean endOfInput) throws IOException {
+		for (;;) {
+			CoderResult result = encoder.encode(in, out, endOfInput);
+			if (result.isOverflow())
+				drain(out, channel);
+			else if (result.isError())
+				result.throwException();
+			else
+				return;
+		}
+	}
+
+	private static void drain(ByteBuffer out, FileChannel channel) throws IOException {
+		out.flip();
+		while (out.hasRemaining())
+			channel.write(out);
+		out.clear();
+	}
+
+	/**
+	 * Give the new file the permissions of the file it replaces.
+	 */
+	private static void copyPermissions(Path from, Path to) {
+		try {
+			if (Files.exists(from))
+				Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+		} catch (UnsupportedOperationException | IOException ignored) {
+		}
+	}
+
+	/** How many characters are taken from the snapshot at once */
+	private static final int CHUNK = 64 * 1024;
+
+	/** Size of the buffer of encoded bytes */
+	private static final int BUFFER = 64 * 1024;
+}
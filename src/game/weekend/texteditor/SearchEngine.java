@@ -0,0 +1,171 @@
+package game.weekend.texteditor;
+
+import javax.swing.text.Document;
+
+/**
+ * Search for a pattern in a text, the same for find, replace, highlighting and
+ * the search in files.
+ * <p>
+ * A search is stateful: it remembers the match found last, so that its end is
+ * known, the next match is found after it and the replacement may refer to its
+ * groups. Every thread needs its own object, see create().
+ * <p>
+ * The kinds of search are the substring (LiteralSearch), the regular expression
+ * (RegexSearch), the approximate substring (FuzzySearch) and any of them
+ * restricted to whole words (WholeWordSearch).
+ */
+public interface SearchEngine {
+
+	/**
+	 * Create the search for the pattern.
+	 *
+	 * @param pattern       substring or regular expression.
+	 * @param caseSensitive is the case of the letters significant.
+	 * @param regex         is the pattern a regular expression.
+	 * @param wholeWord     must a match be a whole word.
+	 * @return search.
+	 * @throws java.util.regex.PatternSyntaxException if the regular expression is
+	 *                                                incorrect.
+	 */
+	static SearchEngine create(String pattern, boolean caseSensitive, boolean regex, boolean wholeWord) {
+		return create(pattern, caseSensitive, regex, wholeWord, 0);
+	}
+
+	/**
+	 * Create the search for the pattern, exact or approximate.
+	 *
+	 * @param pattern       substring or regular expression.
+	 * @param caseSensitive is the case of the letters significant.
+	 * @param regex         is the pattern a regular expression.
+	 * @param wholeWord     must a match be a whole word.
+	 * @param edits         how many edits a match of a substring may have, 0 for
+	 *                      an exact search.
+	 * @return search.
+	 * @throws java.util.regex.PatternSyntaxException if the regular expression is
+	 *                                                incorrect.
+	 * @throws IllegalArgumentException               if the substring is too long
+	 *                                                for an approximate search.
+	 */
+	static SearchEngine create(String pattern, boolean caseSensitive, boolean regex, boolean wholeWord, int edits) {
+		SearchEngine search;
+		if (regex)
+			search = new RegexSearch(pattern, caseSensitive);
+		else if (edits > 0)
+			search = new FuzzySearch(pattern, caseSensitive, edits);
+		else
+			search = new LiteralSearch(pattern, caseSensitive);
+		return wholeWord ? new WholeWordSearch(search) : search;
+	}
+
+	/**
+	 * Find the first match in a part of the text.
+	 *
+	 * @param text text.
+	 * @param from where to begin.
+	 * @param to   where the match must end.
+	 * @return offset of the match or -1.
+	 */
+	int find(CharSequence text, int from, int to);
+
+	/**
+	 * Find the next match after the one found last, in the same part of the text.
+	 *
+	 * @return offset of the match or -1.
+	 */
+	int findNext();
+
+	/**
+	 * Find the first match beginning not before the offset.
+	 *
+	 * @param text text.
+	 * @param from where to begin.
+	 * @return offset of the match or -1.
+	 */
+	default int indexOf(CharSequence text, int from) {
+		return find(text, from, text.length());
+	}
+
+	/**
+	 * Find the last match ending not after the offset. By default the text is
+	 * searched from the beginning.
+	 *
+	 * @param text text.
+	 * @param end  where the match must end.
+	 * @return offset of the match or -1.
+	 */
+	default int lastIndexOf(CharSequence text, int end) {
+		int start = -1;
+		int stop = -1;
+		for (int i = find(text, 0, end); i >= 0; i = findNext()) {
+			start = i;
+			stop = end();
+		}
+		// Find the last match again, so that it is the current one
+		if (start >= 0)
+			find(text, start, stop);
+		return start;
+	}
+
+	/**
+	 * Find the first match in the document beginning not before the offset. A
+	 * search may read the whole document faster than through a CharSequence.
+	 *
+	 * @param doc  document.
+	 * @param from where to begin.
+	 * @return offset of the match or -1.
+	 */
+	default int indexOf(Document doc, int from) {
+		return indexOf(new DocumentChars(doc), from);
+	}
+
+	/**
+	 * Find the last match in the document ending not after the offset.
+	 *
+	 * @param doc document.
+	 * @param end where the match must end.
+	 * @return offset of the match or -1.
+	 */
+	default int lastIndexOf(Document doc, int end) {
+		return lastIndexOf(new DocumentChars(doc), end);
+	}
+
+	/**
+	 * Does all the part of the text match the pattern? If it does, the part
+	 * becomes the current match.
+	 *
+	 * @param text  text.
+	 * @param start beginning of the part.
+	 * @param end   end of the part.
+	 * @return true/false.
+	 */
+	boolean matches(CharSequence text, int start, int end);
+
+	/**
+	 * Get the end of the current match.
+	 *
+	 * @return offset after the last character of the match.
+	 */
+	int end();
+
+	/**
+	 * Add the replacement of the current match.
+	 *
+	 * @param sb          where to add.
+	 * @param replacement replacement.
+	 * @throws IllegalArgumentException if the replacement refers to a group that
+	 *                                  does not exist.
+	 */
+	void appendReplacement(StringBuilder sb, String replacement);
+
+	/**
+	 * Get the replacement of the current match.
+	 *
+	 * @param replacement replacement.
+	 * @return replacement to put in place of the match.
+	 */
+	default String getReplacement(String replacement) {
+		StringBuilder sb = new StringBuilder();
+		appendReplacement(sb, replacement);
+		return sb.toString();
+	}
+}
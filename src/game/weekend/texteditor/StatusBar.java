@@ -1,10 +1,13 @@
 package game.weekend.texteditor;
 
+import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
+import javax.swing.JButton;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 import javax.swing.Timer;
 
@@ -18,19 +21,27 @@ public class StatusBar {
 	 */
 	public StatusBar() {
 		panel = new JPanel();
-		panel.setLayout(new GridLayout(1, 3));
+		panel.setLayout(new BorderLayout());
+
+		JPanel sections = new JPanel();
+		sections.setLayout(new GridLayout(1, 4));
+		panel.add(sections, BorderLayout.CENTER);
 
 		text1 = new JTextField("");
 		text1.setEditable(false);
-		panel.add(text1);
+		sections.add(text1);
 
 		text2 = new JTextField("");
 		text2.setEditable(false);
-		panel.add(text2);
+		sections.add(text2);
+
+		text3 = new JTextField("");
+		text3.setEditable(false);
+		sections.add(text3);
 
 		message = new JTextField("");
 		message.setEditable(false);
-		panel.add(message);
+		sections.add(message);
 	}
 
 	/**
@@ -60,6 +71,15 @@ public class StatusBar {
 		text2.setText(text);
 	}
 
+	/**
+	 * Display text in the third section of the status bar.
+	 * 
+	 * @param text text.
+	 */
+	public void showText3(String text) {
+		text3.setText(text);
+	}
+
 	/**
 	 * Display a message in the status bar and keep it displayed for five (DELAY)
 	 * seconds.
@@ -79,10 +99,73 @@ public class StatusBar {
 		tmr.start();
 	}
 
+	/**
+	 * Show the progress of a long operation and the button to cancel it.
+	 * 
+	 * @param text     what is being done.
+	 * @param onCancel called when the Cancel button is pressed.
+	 */
+	public void startProgress(String text, Runnable onCancel) {
+		// The progress section is created on first use, when the interface language
+		// is already known
+		if (progressPanel == null) {
+			progress = new JProgressBar(0, 100);
+			progress.setStringPainted(true);
+
+			btnCancel = new JButton(Loc.get("cancel"));
+			btnCancel.setRequestFocusEnabled(false);
+			btnCancel.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent event) {
+					if (cancel != null)
+						cancel.run();
+				}
+			});
+
+			progressPanel = new JPanel();
+			progressPanel.setLayout(new BorderLayout());
+			progressPanel.add(progress, BorderLayout.CENTER);
+			progressPanel.add(btnCancel, BorderLayout.EAST);
+			panel.add(progressPanel, BorderLayout.EAST);
+		}
+
+		cancel = onCancel;
+		progress.setValue(0);
+		progress.setString(text);
+		progressPanel.setVisible(true);
+		panel.revalidate();
+	}
+
+	/**
+	 * Show how much of the long operation has been done.
+	 * 
+	 * @param percent percentage done.
+	 */
+	public void setProgress(int percent) {
+		if (progress != null)
+			progress.setValue(percent);
+	}
+
+	/**
+	 * Hide the progress of the finished long operation.
+	 */
+	public void stopProgress() {
+		cancel = null;
+		if (progressPanel != null) {
+			progressPanel.setVisible(false);
+			panel.revalidate();
+		}
+	}
+
 	private static final int DELAY = 5000; // Message display time
 	private JPanel panel;
 	private JTextField text1;
 	private JTextField text2;
+	private JTextField text3;
 	private JTextField message;
 	private Timer tmr;
+
+	private JPanel progressPanel;
+	private JProgressBar progress;
+	private JButton btnCancel;
+	private Runnable cancel;
 }
@@ -0,0 +1,56 @@
+package game.weekend.texteditor;
+
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Unchangeable copy of the text of a document.
+ * <p>
+ * A snapshot can be taken by any thread, under the read lock of the document,
+ * so it never has half of an edit. Then it is read without any lock while the
+ * user goes on editing the document. How much is actually copied depends on the
+ * document: the snapshot of a document made of pieces copies only the list of
+ * pieces, and only once for every version of the text.
+ */
+public interface TextSnapshot extends CharSequence {
+
+	/**
+	 * Take a snapshot of the text of the document.
+	 *
+	 * @param doc document.
+	 * @return snapshot of the text.
+	 */
+	static TextSnapshot of(Document doc) {
+		if (doc instanceof PieceDocument)
+			return ((PieceDocument) doc).getSnapshot();
+		if (doc instanceof LargeDocument)
+			return ((LargeDocument) doc).getSnapshot();
+		return ArraySnapshot.of(doc);
+	}
+
+	/**
+	 * Get a part of the text. Like a partial return of a document, the segment may
+	 * receive fewer characters than requested, but at least one.
+	 *
+	 * @param offset index of the first character.
+	 * @param length number of characters.
+	 * @param txt    segment receiving the characters, they must not be changed.
+	 */
+	void getText(int offset, int length, Segment txt);
+
+	/**
+	 * Get a part of the text, putting the characters that have to be made, decoded
+	 * from a file or read from the journal, into the buffer of the reader instead
+	 * of a new array. The buffer is used again for the next part, so the reader
+	 * must be done with the previous part by then. A reader of a mapped file gets
+	 * whole decoded blocks only in a buffer of more than 16K characters.
+	 *
+	 * @param offset index of the first character.
+	 * @param length number of characters.
+	 * @param txt    segment receiving the characters, they must not be changed.
+	 * @param buffer array of the reader, or null to get new arrays.
+	 */
+	default void getText(int offset, int length, Segment txt, char[] buffer) {
+		getText(offset, length, txt);
+	}
+}
@@ -0,0 +1,307 @@
+package game.weekend.texteditor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.swing.text.Document;
+
+/**
+ * Index of the three-character substrings of a text that does not change, for
+ * repeated searches in a large file.
+ * <p>
+ * The text is divided into blocks of BLOCK characters. For each block there is
+ * a set of bits, and each three characters of the block (without the case)
+ * set the bit their hash points to. A substring can begin in a block only if
+ * all the bits of its first three-character parts are set there, so the search
+ * looks only into such blocks, which are usually few. The bits of a block are
+ * also set by the parts beginning a little after its end, so an occurrence
+ * crossing the end of a block is not missed.
+ * <p>
+ * The index takes one bit for every BLOCK / BITS characters of the text. It is
+ * built by all the processors, each block separately, and can be kept in a file
+ * next to the text. The file is valid while the size and the time of the change
+ * of the text file stay the same.
+ */
+public class TrigramIndex {
+
+	/**
+	 * Build the index of the text.
+	 *
+	 * @param text text.
+	 */
+	public TrigramIndex(TextSnapshot text) {
+		this.length = text.length();
+		this.blocks = (length + BLOCK - 1) / BLOCK;
+		this.bits = new long[blocks * WORDS];
+		POOL.invoke(new Build(text, 0, blocks));
+	}
+
+	private TrigramIndex(int length, long[] bits) {
+		this.length = length;
+		this.blocks = (length + BLOCK - 1) / BLOCK;
+		this.bits = bits;
+	}
+
+	/**
+	 * Get the index of the document if it can be used: the document is a large
+	 * file that has not been edited.
+	 *
+	 * @param doc document.
+	 * @return index or null.
+	 */
+	public static TrigramIndex of(Document doc) {
+		Object index = doc.getProperty(TrigramIndex.class);
+		if (index instanceof TrigramIndex && doc instanceof LargeDocument && ((LargeDocument) doc).isOriginal()
+				&& ((TrigramIndex) index).length == doc.getLength())
+			return (TrigramIndex) index;
+		return null;
+	}
+
+	/**
+	 * Can the index help to find the substring? Only a substring of three
+	 * characters or more has parts in the index.
+	 *
+	 * @param pattern substring.
+	 * @return true/false.
+	 */
+	public static boolean canFind(String pattern) {
+		return pattern.length() >= GRAM;
+	}
+
+	/**
+	 * Find the first occurrence beginning not before the offset.
+	 *
+	 * @param text    the text of the index.
+	 * @param pattern substring, not shorter than three characters.
+	 * @param search  search for the substring.
+	 * @param from    where to begin.
+	 * @return offset of the occurrence or -1.
+	 */
+	public int indexOf(TextSnapshot text, String pattern, Horspool search, int from) {
+		int[] probes = probes(pattern);
+		int m = search.length();
+		from = Math.max(from, 0);
+		for (int b = from / BLOCK; b < blocks; ++b) {
+			if (!contains(b, probes))
+				continue;
+			int start = Math.max(b * BLOCK, from);
+			int end = Math.min((b + 1) * BLOCK, length);
+			if (start >= end)
+				continue;
+			DocumentChars chars = new DocumentChars(text, start, Math.min(end + m - 1, length));
+			int i = search.indexOf(chars, 0);
+			if (i >= 0 && start + i < end)
+				return start + i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the last occurrence ending not after the offset.
+	 *
+	 * @param text    the text of the index.
+	 * @param pattern substring, not shorter than three characters.
+	 * @param search  search for the substring.
+	 * @param end     where the occurrence must end.
+	 * @return offset of the occurrence or -1.
+	 */
+	public int lastIndexOf(TextSnapshot text, String pattern, Horspool search, int end) {
+		int[] probes = probes(pattern);
+		int m = search.length();
+		end = Math.min(end, length);
+		// The last place where an occurrence can begin
+		int last = end - m;
+		for (int b = last / BLOCK; b >= 0 && last >= 0; --b) {
+			if (!contains(b, probes))
+				continue;
+			int start = b * BLOCK;
+			int stop = Math.min(Math.min((b + 1) * BLOCK, last + 1) + m - 1, end);
+			DocumentChars chars = new DocumentChars(text, start, stop);
+			int i = search.lastIndexOf(chars, chars.length());
+			if (i >= 0)
+				return start + i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Read the index kept in the file next to the text file, if it is there and
+	 * belongs to the text file as it is now.
+	 *
+	 * @param file text file.
+	 * @param text the text of the file.
+	 * @return index or null.
+	 */
+	public static TrigramIndex load(File file, TextSnapshot text) {
+		File sidecar = getSidecar(file);
+		if (!sidecar.isFile())
+			return null;
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(sidecar.toPath()), 64 * 1024))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != file.length()
+					|| in.readLong() != file.lastModified() || in.readInt() != text.length() || in.readInt() != BLOCK
+					|| in.readInt() != BITS)
+				return null;
+			long[] bits = new long[(text.length() + BLOCK - 1) / BLOCK * WORDS];
+			for (int i = 0; i < bits.length; ++i)
+				bits[i] = in.readLong();
+			return new TrigramIndex(text.length(), bits);
+		} catch (IOException e) {
+			// A damaged or a short file is built anew
+			return null;
+		}
+	}
+
+	/**
+	 * Keep the index in the file next to the text file. If the file cannot be
+	 * written, for example the directory is read-only, the index is not kept.
+	 *
+	 * @param file text file.
+	 */
+	public void save(File file) {
+		Path target = getSidecar(file).toPath();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(file.length());
+				out.writeLong(file.lastModified());
+				out.writeInt(length);
+				out.writeInt(BLOCK);
+				out.writeInt(BITS);
+				for (long word : bits)
+					out.writeLong(word);
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException ignored) {
+		} finally {
+			try {
+				if (temp != null)
+					Files.deleteIfExists(temp);
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Get the file the index of the text file is kept in.
+	 */
+	private static File getSidecar(File file) {
+		File f = file.getAbsoluteFile();
+		return new File(f.getParentFile(), f.getName() + SUFFIX);
+	}
+
+	/**
+	 * Get the bits of the first three-character parts of the substring.
+	 */
+	private static int[] probes(String pattern) {
+		int n = Math.min(pattern.length(), OVERLAP + GRAM - 1) - GRAM + 1;
+		int[] probes = new int[Math.max(n, 0)];
+		for (int i = 0; i < probes.length; ++i)
+			probes[i] = hash(fold(pattern.charAt(i)), fold(pattern.charAt(i + 1)), fold(pattern.charAt(i + 2)));
+		return probes;
+	}
+
+	/**
+	 * Are all the bits set in the block?
+	 */
+	private boolean contains(int block, int[] probes) {
+		int base = block * WORDS;
+		for (int bit : probes)
+			if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		return true;
+	}
+
+	private static int hash(char c0, char c1, char c2) {
+		int h = (c0 * 31 + c1) * 31 + c2;
+		return (h * 0x9E3779B1) >>> (32 - SHIFT);
+	}
+
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * Set the bits of the blocks.
+	 */
+	@SuppressWarnings("serial")
+	private class Build extends RecursiveAction {
+
+		Build(TextSnapshot text, int from, int to) {
+			this.text = text;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Build(text, from, mid), new Build(text, mid, to));
+				return;
+			}
+			int start = from * BLOCK;
+			// The parts beginning a little after the block belong to it too
+			int end = (int) Math.min((long) start + BLOCK + OVERLAP + GRAM - 1, length);
+			DocumentChars chars = new DocumentChars(text, start, end);
+			int base = from * WORDS;
+			if (chars.length() < GRAM)
+				return;
+			char c0 = fold(chars.charAt(0));
+			char c1 = fold(chars.charAt(1));
+			for (int i = GRAM - 1; i < chars.length(); ++i) {
+				char c2 = fold(chars.charAt(i));
+				int bit = hash(c0, c1, c2);
+				bits[base + (bit >>> 6)] |= 1L << bit;
+				c0 = c1;
+				c1 = c2;
+			}
+		}
+
+		private final TextSnapshot text;
+		private final int from;
+		private final int to;
+	}
+
+	/** Length of the indexed parts of the text */
+	private static final int GRAM = 3;
+	/** Characters in a block */
+	private static final int BLOCK = 64 * 1024;
+	/** Bits of a block, a power of two */
+	private static final int SHIFT = 14;
+	private static final int BITS = 1 << SHIFT;
+	private static final int WORDS = BITS / 64;
+	/** How far after its end a block takes the parts */
+	private static final int OVERLAP = 64;
+
+	/** The file of the index: its beginning and the end of its name */
+	private static final int MAGIC = 0x57544749;
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".trigrams";
+
+	private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+	/** Length of the text */
+	private final int length;
+	private final int blocks;
+	/** The bits of all the blocks, WORDS longs per block */
+	private final long[] bits;
+}
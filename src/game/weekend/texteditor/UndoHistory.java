@@ -0,0 +1,378 @@
+package game.weekend.texteditor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * History of the changes of the text for "Undo" and "Redo".
+ * <p>
+ * UndoManager keeps every typed character as a separate edit, and the number of
+ * the edits it keeps says nothing about the memory they take. Here the
+ * characters typed one after another, or removed one after another by Backspace
+ * or Delete, are joined into one step, which is undone at once. A step ends at a
+ * line feed, at a pause in typing and at an undo or redo.
+ * <p>
+ * Every step knows how many bytes it keeps: the objects that describe the
+ * change, and the changed text if the edits keep it. The edits of a piece table
+ * (PieceContent) do not: they describe pieces, and the text stays in the buffer
+ * of the piece table or in its journal as long as the document lives, whether
+ * or not the history refers to it. So the budget limits the memory of the
+ * history itself, not of the text ever typed. When the history takes more than
+ * the budget, the oldest steps are forgotten. They are forgotten in a batch,
+ * down to three quarters of the budget, so the history is not shifted after
+ * every keystroke. Undo and redo take the step next to the current position, so
+ * they do not depend on how long the history is.
+ * <p>
+ * Every state of the text has a version: a change gives it a new number, never
+ * used before, and undo or redo returns it the number it had. So the text saved
+ * at some version is unchanged whenever its version is the same, also after the
+ * changes made since have been undone.
+ */
+@SuppressWarnings("serial")
+public class UndoHistory extends UndoManager {
+
+	/**
+	 * Create a history.
+	 *
+	 * @param budget how many bytes the history may take.
+	 */
+	public UndoHistory(long budget) {
+		this.budget = budget;
+		// The budget limits the history, not the number of edits
+		setLimit(-1);
+	}
+
+	/**
+	 * Get how many bytes the history takes.
+	 *
+	 * @return number of bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Get how many bytes the history may take.
+	 *
+	 * @return number of bytes.
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set how many bytes the history may take. The oldest steps over the budget
+	 * are forgotten at once.
+	 *
+	 * @param budget number of bytes.
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		trimForBudget();
+	}
+
+	/**
+	 * Get the version of the text.
+	 *
+	 * @return version.
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * End the step being typed: the next character begins a new step, so that the
+	 * present version of the text can be returned to by undo.
+	 */
+	public synchronized void endStep() {
+		open = null;
+	}
+
+	/**
+	 * Add the edit to the history: either to the step being typed, or as a new
+	 * step.
+	 */
+	@Override
+	public synchronized boolean addEdit(UndoableEdit edit) {
+		long now = System.currentTimeMillis();
+		Typing typing = Typing.of(edit);
+
+		// The text has been changed, whether or not the change can be undone
+		long before = version;
+		version = ++lastVersion;
+
+		if (typing != null && open != null && open == editToBeUndone() && open.join(typing, now)) {
+			size += typing.size;
+			open.after = version;
+		} else {
+			Step step = new Step(edit, typing, now);
+			step.before = before;
+			step.after = version;
+			if (!super.addEdit(step))
+				return false;
+			size += step.size;
+			open = (typing != null) ? step : null;
+		}
+
+		trimForBudget();
+		return true;
+	}
+
+	@Override
+	public synchronized void undo() throws CannotUndoException {
+		open = null;
+		Step step = (Step) editToBeUndone();
+		super.undo();
+		version = step.before;
+	}
+
+	@Override
+	public synchronized void redo() throws CannotRedoException {
+		open = null;
+		Step step = (Step) editToBeRedone();
+		super.redo();
+		version = step.after;
+	}
+
+	@Override
+	public synchronized void discardAllEdits() {
+		super.discardAllEdits();
+		open = null;
+		size = 0;
+	}
+
+	/**
+	 * Forget the steps, counting the bytes they kept.
+	 */
+	@Override
+	protected void trimEdits(int from, int to) {
+		for (int i = from; i <= to && i < edits.size(); ++i)
+			size -= ((Step) edits.get(i)).size;
+		super.trimEdits(from, to);
+		if (open != null && !edits.contains(open))
+			open = null;
+	}
+
+	/**
+	 * Forget the oldest steps if the history takes more than the budget. The step
+	 * that is done last is never forgotten, or it could not be undone at all.
+	 */
+	private void trimForBudget() {
+		if (size <= budget)
+			return;
+
+		long goal = budget / 4 * 3;
+		long left = size;
+		int last = -1;
+		UndoableEdit current = editToBeUndone();
+		for (int i = 0; i < edits.size() && left > goal && edits.get(i) != current; ++i) {
+			left -= ((Step) edits.get(i)).size;
+			last = i;
+		}
+		if (last >= 0)
+			trimEdits(0, last);
+	}
+
+	/**
+	 * Estimate how many bytes the edit keeps.
+	 *
+	 * @param edit edit.
+	 * @return number of bytes.
+	 */
+	public static long sizeOf(UndoableEdit edit) {
+		if (edit instanceof Group)
+			return ((Group) edit).size;
+		if (edit instanceof DocumentEvent) {
+			DocumentEvent e = (DocumentEvent) edit;
+			// The edits of a piece table keep the descriptions of the pieces, not the text
+			Document doc = e.getDocument();
+			if (doc instanceof PieceDocument || doc instanceof LargeDocument)
+				return EDIT_BYTES;
+			return EDIT_BYTES + 2L * e.getLength();
+		}
+		return EDIT_BYTES;
+	}
+
+	/**
+	 * Several edits of the document that are undone as one, such as the removal
+	 * and the insertion of a replacement. Unlike CompoundEdit, the group knows how
+	 * many bytes its edits keep.
+	 */
+	public static class Group extends CompoundEdit {
+		@Override
+		public boolean addEdit(UndoableEdit edit) {
+			if (!super.addEdit(edit))
+				return false;
+			size += sizeOf(edit);
+			return true;
+		}
+
+		private long size = 0;
+	}
+
+	/**
+	 * A character typed or removed by a key.
+	 */
+	private static class Typing {
+
+		/**
+		 * Get the typing that the edit is.
+		 *
+		 * @return typing, or null if the edit is not a single character inserted or
+		 *         removed.
+		 */
+		static Typing of(UndoableEdit edit) {
+			if (!(edit instanceof DocumentEvent))
+				return null;
+			DocumentEvent e = (DocumentEvent) edit;
+			if (e.getLength() != 1 || e.getType() == DocumentEvent.EventType.CHANGE)
+				return null;
+
+			boolean insert = e.getType() == DocumentEvent.EventType.INSERT;
+			boolean lineFeed = false;
+			if (insert) {
+				try {
+					// The edit has just been made, so the character is in the document
+					lineFeed = e.getDocument().getText(e.getOffset(), 1).charAt(0) == '\n';
+				} catch (BadLocationException ignored) {
+				}
+			}
+			return new Typing(edit, insert, e.getOffset(), lineFeed);
+		}
+
+		private Typing(UndoableEdit edit, boolean insert, int offset, boolean lineFeed) {
+			this.edit = edit;
+			this.insert = insert;
+			this.offset = offset;
+			this.lineFeed = lineFeed;
+			this.size = sizeOf(edit);
+		}
+
+		final UndoableEdit edit;
+		final boolean insert;
+		final int offset;
+		final boolean lineFeed;
+		final long size;
+	}
+
+	/**
+	 * A step of the history: one edit, or characters typed one after another.
+	 */
+	private static class Step extends AbstractUndoableEdit {
+
+		Step(UndoableEdit edit, Typing typing, long time) {
+			edits.add(edit);
+			size = sizeOf(edit);
+			if (typing != null) {
+				insert = typing.insert;
+				start = typing.offset;
+				end = typing.offset + (typing.insert ? 1 : 0);
+				closed = typing.lineFeed;
+			} else
+				closed = true;
+			this.time = time;
+		}
+
+		/**
+		 * Join the typing to the step if it continues the typing of the step.
+		 *
+		 * @return true if joined.
+		 */
+		boolean join(Typing typing, long time) {
+			if (closed || typing.insert != insert || time - this.time > PAUSE)
+				return false;
+
+			if (insert) {
+				// The next character after the previous one
+				if (typing.offset != end)
+					return false;
+				++end;
+			} else if (typing.offset == start - 1) {
+				// Backspace
+				--start;
+			} else if (typing.offset != start) {
+				// Not Delete either
+				return false;
+			}
+
+			edits.add(typing.edit);
+			size += typing.size;
+			closed = typing.lineFeed;
+			this.time = time;
+			return true;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			for (int i = edits.size() - 1; i >= 0; --i)
+				edits.get(i).undo();
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			for (UndoableEdit edit : edits)
+				edit.redo();
+		}
+
+		@Override
+		public void die() {
+			for (UndoableEdit edit : edits)
+				edit.die();
+			super.die();
+		}
+
+		@Override
+		public boolean isSignificant() {
+			return edits.get(0).isSignificant();
+		}
+
+		@Override
+		public String getPresentationName() {
+			return edits.get(0).getPresentationName();
+		}
+
+		private final List<UndoableEdit> edits = new ArrayList<UndoableEdit>(1);
+		private long size;
+
+		/** The versions of the text before and after the step */
+		private long before;
+		private long after;
+
+		/** Where the typing is: the characters between the start and the end */
+		private boolean insert;
+		private int start;
+		private int end;
+
+		/** The typing has ended */
+		private boolean closed;
+		/** When the last character was typed */
+		private long time;
+	}
+
+	/** A pause in typing that ends a step, milliseconds */
+	private static final long PAUSE = 1000;
+	/** The bytes of the objects that describe an edit */
+	private static final long EDIT_BYTES = 160;
+
+	private long budget;
+	/** How many bytes the history takes */
+	private long size = 0;
+	/** The step being typed */
+	private Step open;
+
+	/** The version of the text and the last version given */
+	private long version = 0;
+	private long lastVersion = 0;
+}
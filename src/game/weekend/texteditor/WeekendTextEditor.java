@@ -70,13 +70,19 @@ public class WeekendTextEditor {
 		Finder finder = new Finder(editor.getPane(), frame, laf);
 
 		// Replace in open file
-		Replacer replacer = new Replacer(editor.getPane(), frame, laf);
+		Replacer replacer = new Replacer(editor, frame, laf);
 
 		// Working with files
 		filer = new Filer(this, editor, lastFiles, finder, replacer);
 
+		// Search in the files of a directory
+		FileFinder fileFinder = new FileFinder(filer, frame, laf);
+
+		// Keywords highlighted in every text
+		Keywords keywords = new Keywords(editor.getPane(), frame);
+
 		// Working with menus and toolbars
-		act = new Act(this, editor, filer, lastFiles, finder, replacer, laf);
+		act = new Act(this, editor, filer, lastFiles, finder, replacer, fileFinder, keywords, laf);
 
 		// Menu
 		frame.setJMenuBar(act.getMenuBar());
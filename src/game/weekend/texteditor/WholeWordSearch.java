@@ -0,0 +1,91 @@
+package game.weekend.texteditor;
+
+import javax.swing.text.Document;
+
+/**
+ * Search that takes only the matches that are whole words: the characters next
+ * to a match on either side are not letters, digits or underscores.
+ * <p>
+ * The matches are found by another search, the matches inside words are
+ * skipped. The last match is found by reading the text from the beginning, as
+ * a match found backwards inside a word would have to be looked for again.
+ */
+public class WholeWordSearch implements SearchEngine {
+
+	/**
+	 * Restrict the search to whole words.
+	 *
+	 * @param search search for the pattern.
+	 */
+	public WholeWordSearch(SearchEngine search) {
+		this.search = search;
+	}
+
+	@Override
+	public int find(CharSequence text, int from, int to) {
+		this.text = text;
+		this.to = to;
+		return skip(search.find(text, from, to));
+	}
+
+	@Override
+	public int findNext() {
+		return skip(search.findNext());
+	}
+
+	@Override
+	public int indexOf(Document doc, int from) {
+		text = new DocumentChars(doc);
+		int i = search.indexOf(doc, from);
+		while (i >= 0 && !isWord(text, i, search.end()))
+			i = search.indexOf(doc, i + 1);
+		return i;
+	}
+
+	@Override
+	public boolean matches(CharSequence text, int start, int end) {
+		return isWord(text, start, end) && search.matches(text, start, end);
+	}
+
+	@Override
+	public int end() {
+		return search.end();
+	}
+
+	@Override
+	public void appendReplacement(StringBuilder sb, String replacement) {
+		search.appendReplacement(sb, replacement);
+	}
+
+	/**
+	 * Skip the matches inside words. The search goes on from the next character
+	 * after a skipped match, not from its end, since a whole word may overlap it.
+	 */
+	private int skip(int i) {
+		while (i >= 0 && !isWord(text, i, search.end()))
+			i = (i < to) ? search.find(text, i + 1, to) : -1;
+		return i;
+	}
+
+	/**
+	 * Is the part of the text a whole word, not a part of a longer one?
+	 *
+	 * @param text  text.
+	 * @param start beginning of the part.
+	 * @param end   end of the part.
+	 * @return true/false.
+	 */
+	public static boolean isWord(CharSequence text, int start, int end) {
+		return (start == 0 || !isWordChar(text.charAt(start - 1)))
+				&& (end >= text.length() || !isWordChar(text.charAt(end)));
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	private final SearchEngine search;
+	private CharSequence text;
+	/** Where the matches must end */
+	private int to;
+}